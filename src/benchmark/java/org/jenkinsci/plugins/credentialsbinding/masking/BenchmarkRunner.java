@@ -0,0 +1,37 @@
+package org.jenkinsci.plugins.credentialsbinding.masking;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the masking benchmarks: {@code mvn test -P benchmark}.
+ * Use {@code -Dbenchmark.include=<regexp>} to select benchmarks and
+ * {@code -Dbenchmark.params=name=value,value;name=value} to restrict parameters.
+ * Results are written to {@code target/jmh-report.json}.
+ */
+class BenchmarkRunner {
+
+    @Test
+    void runJmhBenchmarks() throws Exception {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(System.getProperty("benchmark.include", getClass().getPackageName() + "\\..*Benchmark"))
+                .forks(Integer.getInteger("benchmark.forks", 1))
+                .warmupIterations(Integer.getInteger("benchmark.warmupIterations", 3))
+                .measurementIterations(Integer.getInteger("benchmark.measurementIterations", 5))
+                .shouldFailOnError(true)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-report.json");
+        String params = System.getProperty("benchmark.params");
+        if (params != null && !params.isEmpty()) {
+            for (String param : params.split(";")) {
+                String[] nameValues = param.split("=", 2);
+                options.param(nameValues[0], nameValues[1].split(","));
+            }
+        }
+        new Runner(options.build()).run();
+    }
+
+}
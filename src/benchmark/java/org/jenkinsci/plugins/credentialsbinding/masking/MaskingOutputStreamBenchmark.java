@@ -0,0 +1,124 @@
+package org.jenkinsci.plugins.credentialsbinding.masking;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures masking throughput. Each operation writes a block of lines through a masking stream;
+ * the {@link Throughput} counters report the corresponding bytes and lines per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class MaskingOutputStreamBenchmark {
+
+    private static final int LINES = 1_000;
+
+    @Param({"1", "10", "100", "500"})
+    public int secretCount;
+
+    @Param({"8", "32"})
+    public int secretLength;
+
+    @Param({"80", "1000"})
+    public int lineLength;
+
+    @Param({"0", "0.01", "0.5"})
+    public double hitRate;
+
+    @Param({"UTF-8", "ISO-8859-1", "UTF-16LE"})
+    public String charset;
+
+    /**
+     * {@code lines} for {@link SecretPatterns.MaskingOutputStream} with {@link SecretPatterns#getAggregateSecretMatcher},
+     * {@code regex} for the same with {@link SecretPatterns#getAggregateSecretPattern},
+     * {@code streaming} for {@link SecretPatterns.StreamingMaskingOutputStream}.
+     */
+    @Param({"lines", "regex", "streaming"})
+    public String mode;
+
+    private byte[][] block;
+    private OutputStream stream;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+
+        public long bytes;
+        public long lines;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            lines = 0;
+        }
+
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(secretCount * 31L + secretLength);
+        List<String> secrets = Secrets.secrets(random, secretCount, secretLength);
+        Charset cs = Charset.forName(charset);
+        List<String> lines = Secrets.lines(random, secrets, LINES, lineLength, hitRate);
+        block = new byte[lines.size()][];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = lines.get(i).getBytes(cs);
+        }
+        SecretMatcher matcher = SecretPatterns.compile(secrets, Secrets.factories());
+        OutputStream sink = new Sink();
+        switch (mode) {
+            case "lines":
+                stream = new SecretPatterns.MaskingOutputStream(sink, () -> matcher, cs);
+                break;
+            case "regex":
+                Pattern pattern = matcher.toPattern();
+                stream = new SecretPatterns.MaskingOutputStream(sink, () -> pattern, charset);
+                break;
+            case "streaming":
+                stream = new SecretPatterns.StreamingMaskingOutputStream(sink, () -> matcher, cs, 64 * 1024);
+                break;
+            default:
+                throw new IllegalArgumentException(mode);
+        }
+    }
+
+    @Benchmark
+    public void mask(Throughput throughput, Blackhole bh) throws IOException {
+        for (byte[] line : block) {
+            stream.write(line);
+            throughput.bytes += line.length;
+        }
+        throughput.lines += block.length;
+        bh.consume(stream);
+    }
+
+    /** Discards output without allocating, so that only masking is measured. */
+    private static final class Sink extends OutputStream {
+
+        long count;
+
+        @Override public void write(int b) {
+            count++;
+        }
+
+        @Override public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+    }
+
+}
@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.credentialsbinding.masking;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures how long it takes to turn a set of secrets into something which can mask them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SecretPatternsBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    public int secretCount;
+
+    @Param({"8", "32", "128"})
+    public int secretLength;
+
+    private List<String> secrets;
+    private List<SecretPatternFactory> factories;
+    private List<String> forms;
+
+    @Setup
+    public void setUp() {
+        secrets = Secrets.secrets(new Random(secretCount * 31L + secretLength), secretCount, secretLength);
+        factories = Secrets.factories();
+        forms = SecretPatterns.getEncodedForms(secrets, factories);
+    }
+
+    /** Running every factory over every secret, as each uncached lookup does. */
+    @Benchmark
+    public List<String> encodedForms() {
+        return SecretPatterns.getEncodedForms(secrets, factories);
+    }
+
+    /** The alternation returned by {@link SecretPatterns#getAggregateSecretPattern}. */
+    @Benchmark
+    public Pattern aggregatePattern() {
+        return SecretPatterns.toPattern(forms);
+    }
+
+    /** The automaton returned by {@link SecretPatterns#getAggregateSecretMatcher}. */
+    @Benchmark
+    public SecretMatcher aggregateMatcher() {
+        return SecretMatcher.literal(forms);
+    }
+
+}
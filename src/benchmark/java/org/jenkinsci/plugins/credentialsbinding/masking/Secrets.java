@@ -0,0 +1,61 @@
+package org.jenkinsci.plugins.credentialsbinding.masking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates inputs for the masking benchmarks.
+ */
+final class Secrets {
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789!#$%&'()*+,-./:;<=>?@[]^_{|}~\\\"";
+    private static final String FILLER = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789 -_/.:=";
+
+    /** The factories registered by this plugin, without needing a running Jenkins. */
+    static List<SecretPatternFactory> factories() {
+        return List.of(
+                new LiteralSecretPatternFactory(),
+                new Base64SecretPatternFactory(),
+                new BashSecretPatternFactory(),
+                new AlmquistShellSecretPatternFactory(),
+                new BatchSecretPatternFactory(),
+                new DollarSecretPatternFactory());
+    }
+
+    static List<String> secrets(Random random, int count, int length) {
+        List<String> secrets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            secrets.add(randomString(random, ALPHABET, length));
+        }
+        return secrets;
+    }
+
+    /**
+     * @param hitRate the fraction of lines which contain one of the secrets
+     */
+    static List<String> lines(Random random, List<String> secrets, int count, int length, double hitRate) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder line = new StringBuilder(randomString(random, FILLER, length));
+            if (random.nextDouble() < hitRate) {
+                String secret = secrets.get(random.nextInt(secrets.size()));
+                int at = random.nextInt(Math.max(1, length - secret.length()));
+                line.replace(at, Math.min(length, at + secret.length()), secret);
+            }
+            lines.add(line.append('\n').toString());
+        }
+        return lines;
+    }
+
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    private Secrets() {}
+
+}
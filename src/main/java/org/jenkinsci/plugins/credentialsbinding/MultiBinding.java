@@ -24,7 +24,6 @@
 
 package org.jenkinsci.plugins.credentialsbinding;
 
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.IdCredentials;
 import com.cloudbees.plugins.credentials.common.StandardCredentials;
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -47,6 +46,8 @@ import java.util.Set;
 import jenkins.model.Jenkins;
 import org.apache.commons.collections.CollectionUtils;
 import org.jenkinsci.plugins.credentialsbinding.impl.CredentialNotFoundException;
+import org.jenkinsci.plugins.credentialsbinding.impl.CredentialsCache;
+import org.jenkinsci.plugins.credentialsbinding.impl.CredentialsTracker;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 /**
@@ -186,18 +187,18 @@ public abstract class MultiBinding<C extends StandardCredentials> extends Abstra
     }
 
     /**
-     * Looks up the actual credentials.
+     * Looks up the actual credentials, at most once a while per build.
      * @param build the build.
      * @return the credentials
      * @throws CredentialNotFoundException if the credentials could not be found (for convenience, rather than returning null)
      */
     protected final @NonNull C getCredentials(@NonNull Run<?,?> build) throws CredentialNotFoundException {
-        IdCredentials cred = CredentialsProvider.findCredentialById(credentialsId, IdCredentials.class, build);
+        IdCredentials cred = CredentialsCache.findCredentialById(credentialsId, build);
         if (cred==null)
             throw new CredentialNotFoundException("Could not find credentials entry with ID '" + credentialsId + "'");
 
         if (type().isInstance(cred)) {
-            CredentialsProvider.track(build, cred);
+            CredentialsTracker.track(build, cred);
             return type().cast(cred);
         }
 
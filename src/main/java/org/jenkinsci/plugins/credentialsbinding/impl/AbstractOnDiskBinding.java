@@ -2,6 +2,7 @@ package org.jenkinsci.plugins.credentialsbinding.impl;
 
 import java.io.IOException;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import org.jenkinsci.plugins.credentialsbinding.Binding;
 import org.jenkinsci.plugins.credentialsbinding.BindingDescriptor;
@@ -34,11 +35,27 @@ public abstract class AbstractOnDiskBinding<C extends StandardCredentials> exten
         if (workspace == null) {
             throw new IllegalArgumentException("This Binding implementation requires a non-null workspace");
         }
+        final C credentials = getCredentials(build);
+        final byte[] content = content(credentials);
+        if (content != null) {
+            final UnbindableDir dir = UnbindableDir.createWithFile(workspace, content);
+            return new SingleEnvironment(dir.getFile().getRemote(), dir.getUnbinder());
+        }
         final UnbindableDir dir = UnbindableDir.create(workspace);
-        final FilePath secret = write(getCredentials(build), dir.getDirPath());
+        final FilePath secret = write(credentials, dir.getDirPath());
         return new SingleEnvironment(secret.getRemote(), dir.getUnbinder());
     }
 
+    /**
+     * Returns the content of a single read-only file to bind, if that is all {@link #write} would produce.
+     * The directory and file are then created in one call to the agent, and {@link #write} is not called.
+     * @param credentials the credentials to bind
+     * @return the file content, or null to call {@link #write}
+     */
+    protected @CheckForNull byte[] content(C credentials) throws IOException, InterruptedException {
+        return null;
+    }
+
     /**
      * Writes credentials under a given temporary directory, and returns their path (will be bound to the variable).
      * @param credentials the credentials to bind
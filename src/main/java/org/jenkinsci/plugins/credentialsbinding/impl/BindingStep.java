@@ -24,7 +24,9 @@
 
 package org.jenkinsci.plugins.credentialsbinding.impl;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
@@ -37,6 +39,7 @@ import hudson.util.Secret;
 import java.io.ObjectStreamException;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -45,13 +48,16 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import jenkins.util.SystemProperties;
+
 import org.jenkinsci.plugins.credentialsbinding.MultiBinding;
+import org.jenkinsci.plugins.credentialsbinding.masking.SecretMatcher;
 import org.jenkinsci.plugins.credentialsbinding.masking.SecretPatterns;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
 import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
@@ -64,6 +70,8 @@ import org.jenkinsci.plugins.workflow.steps.Step;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
 import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 /**
@@ -72,6 +80,14 @@ import org.kohsuke.stapler.DataBoundConstructor;
 @SuppressWarnings("rawtypes") // TODO DescribableHelper does not yet seem to handle List<? extends MultiBinding<?>> or even List<MultiBinding<?>>
 public final class BindingStep extends Step {
 
+    /**
+     * Maximum number of bindings of one step to set up at once.
+     * Greater than 1 to enable concurrent binding, only if every {@link MultiBinding} in use is safe to call from several threads.
+     */
+    @Restricted(NoExternalUse.class)
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "for script console")
+    public static /* not final */ int CONCURRENCY = SystemProperties.getInteger(BindingStep.class.getName() + ".CONCURRENCY", 1);
+
     private final List<MultiBinding> bindings;
 
     @DataBoundConstructor public BindingStep(List<MultiBinding> bindings) {
@@ -125,12 +141,16 @@ public final class BindingStep extends Step {
             Map<String,String> secretOverrides = new LinkedHashMap<>();
             Map<String,String> publicOverrides = new LinkedHashMap<>();
             List<MultiBinding.Unbinder> unbinders = new ArrayList<>();
+            List<MultiBinding<?>> bindings = new ArrayList<>();
             for (MultiBinding<?> binding : step.bindings) {
                 if (binding.getDescriptor().requiresWorkspace() &&
                         (workspace == null || launcher == null)) {
                     throw new MissingContextVariableException(FilePath.class, step.getDescriptor());
                 }
-                MultiBinding.MultiEnvironment environment = binding.bind(run, workspace, launcher, listener);
+                bindings.add(binding);
+            }
+            // Merged in the order of the bindings, whichever finished first.
+            for (MultiBinding.MultiEnvironment environment : ConcurrentBindings.bind(bindings, CONCURRENCY, false, run, workspace, launcher, listener)) {
                 unbinders.add(environment.getUnbinder());
                 secretOverrides.putAll(environment.getSecretValues());
                 publicOverrides.putAll(environment.getPublicValues());
@@ -142,31 +162,44 @@ public final class BindingStep extends Step {
                 ).collect(Collectors.joining(" or ")));
             }
 
+            MaskedSecrets maskedSecrets = MaskedSecrets.nest(getContext().get(MaskedSecrets.class), getContext().get(ConsoleLogFilter.class), secretOverrides.values(),
+                    launcher == null ? null : launcher.isUnix(), run.getCharset().name());
+            Overrides overrides = Overrides.nest(getContext().get(Overrides.class), getContext().get(EnvironmentExpander.class), secretOverrides, publicOverrides);
             getContext().newBodyInvoker().
-                    withContext(EnvironmentExpander.merge(getContext().get(EnvironmentExpander.class), new Overrider(secretOverrides, publicOverrides))).
-                    withContext(BodyInvoker.mergeConsoleLogFilters(getContext().get(ConsoleLogFilter.class), new Filter(secretOverrides.values(), run.getCharset().name()))).
-                    withContext(FailureHandler.merge(getContext().get(FailureHandler.class), new Handler(secretOverrides.values()))).
-                    withCallback(new Callback2(unbinders)).
+                    withContext(overrides.expander).
+                    withContext(overrides).
+                    withContext(maskedSecrets.filter).
+                    withContext(maskedSecrets).
+                    withContext(FailureHandler.merge(getContext().get(FailureHandler.class), new Handler(maskedSecrets.secrets))).
+                    withCallback(new Callback2(unbinders, overrides.overrider)).
                     start();
         }
 
+        /** Masks secrets in errors thrown by the body; only compiles a matcher if there is one. */
         private static final class Handler implements FailureHandler {
 
             private static final long serialVersionUID = 1;
 
+            /** Shared with the {@link Filter} of the same block. */
+            private final BoundSecrets secrets;
+            /** Only set in builds started by older versions, which saved the aggregate pattern instead of {@link #secrets}. */
             private final Secret secretPattern;
 
-            Handler(Collection<String> secrets) {
-                this.secretPattern = Secret.fromString(SecretPatterns.getAggregateSecretPattern(secrets).pattern());
+            Handler(BoundSecrets secrets) {
+                this.secrets = secrets;
+                this.secretPattern = null;
             }
 
             @NonNull
             @Override
             public Throwable handle(@NonNull StepContext ctx, @NonNull Throwable t) {
+                if (secrets != null) {
+                    return secrets.isEmpty() ? t : MaskedException.of(t, secrets.getMatcher());
+                }
                 if (Secret.toString(secretPattern).isEmpty()) {
                     return t;
                 }
-                return MaskedException.of(t, Pattern.compile(secretPattern.getPlainText()));
+                return MaskedException.of(t, SecretPatterns.parseAggregateSecretPattern(secretPattern.getPlainText()));
             }
         }
 
@@ -175,12 +208,18 @@ public final class BindingStep extends Step {
             private static final long serialVersionUID = 1;
 
             private final List<MultiBinding.Unbinder> unbinders;
+            /** Null in builds started by older versions. */
+            private final Overrider overrider;
 
-            Callback2(List<MultiBinding.Unbinder> unbinders) {
+            Callback2(List<MultiBinding.Unbinder> unbinders, Overrider overrider) {
                 this.unbinders = unbinders;
+                this.overrider = overrider;
             }
 
             @Override protected void finished(StepContext context) throws Exception {
+                if (overrider != null) {
+                    overrider.forget();
+                }
                 new Callback(unbinders).finished(context);
             }
 
@@ -194,6 +233,8 @@ public final class BindingStep extends Step {
 
         private final Map<String,Secret> overrides = new HashMap<>();
         private Map<String, String> publicOverrides;
+        /** Decrypted {@link #overrides}, filled on first expansion rather than decrypting each time a step asks for its environment. */
+        private transient volatile Map<String, String> plainTexts;
 
         Overrider(Map<String,String> overrides, Map<String, String> publicOverrides) {
             for (Map.Entry<String,String> override : overrides.entrySet()) {
@@ -203,8 +244,16 @@ public final class BindingStep extends Step {
         }
 
         @Override public void expand(@NonNull EnvVars env) {
-            for (Map.Entry<String,Secret> override : overrides.entrySet()) {
-                env.override(override.getKey(), override.getValue().getPlainText());
+            Map<String, String> p = plainTexts;
+            if (p == null) {
+                p = new HashMap<>();
+                for (Map.Entry<String,Secret> override : overrides.entrySet()) {
+                    p.put(override.getKey(), override.getValue().getPlainText());
+                }
+                plainTexts = p;
+            }
+            for (Map.Entry<String,String> override : p.entrySet()) {
+                env.override(override.getKey(), override.getValue());
             }
             for (Map.Entry<String, String> override : publicOverrides.entrySet()) {
                 env.override(override.getKey(), override.getValue());
@@ -217,6 +266,24 @@ public final class BindingStep extends Step {
             return Collections.unmodifiableSet(overrides.keySet());
         }
 
+        /** A copy with further overrides applied on top, as if expanded after this one; this one is left unchanged. */
+        Overrider with(Map<String,String> overrides, Map<String, String> publicOverrides) {
+            Overrider o = new Overrider(Collections.emptyMap(), new HashMap<>(this.publicOverrides));
+            o.overrides.putAll(this.overrides);
+            for (Map.Entry<String,String> override : overrides.entrySet()) {
+                o.overrides.put(override.getKey(), Secret.fromString(override.getValue()));
+                o.publicOverrides.remove(override.getKey());
+            }
+            // Applied after the secret values, so these win while the variables stay sensitive, as with separate expanders.
+            o.publicOverrides.putAll(publicOverrides);
+            return o;
+        }
+
+        /** Drops the decrypted values once the block is over. */
+        void forget() {
+            plainTexts = null;
+        }
+
         private Object readResolve() {
             if (publicOverrides == null) {
                 publicOverrides = new HashMap<>();
@@ -225,16 +292,26 @@ public final class BindingStep extends Step {
         }
     }
 
+    /** For tests: the values currently decrypted by an expander from this step, if any. */
+    static @CheckForNull Map<String, String> plainTexts(@CheckForNull EnvironmentExpander expander) {
+        return expander instanceof Overrider ? ((Overrider) expander).plainTexts : null;
+    }
+
     /** Similar to {@code MaskPasswordsOutputStream}. */
     private static final class Filter extends ConsoleLogFilter implements Serializable {
 
         private static final long serialVersionUID = 1;
 
+        private final BoundSecrets secrets;
+        /** Only set in builds started by older versions, which saved the aggregate pattern instead of {@link #secrets}. */
         private final Secret pattern;
         private String charsetName;
+        /** Parsed from {@link #pattern} at most once per JVM, rather than on each decoration. */
+        private transient volatile SecretMatcher matcher;
         
-        Filter(Collection<String> secrets, String charsetName) {
-            pattern = Secret.fromString(SecretPatterns.getAggregateSecretPattern(secrets).pattern());
+        Filter(BoundSecrets secrets, String charsetName) {
+            this.secrets = secrets;
+            this.pattern = null;
             this.charsetName = charsetName;
         }
         
@@ -246,8 +323,85 @@ public final class BindingStep extends Step {
             return this;
         }
 
+        private SecretMatcher getMatcher() {
+            if (secrets != null) {
+                return secrets.getMatcher();
+            }
+            SecretMatcher m = matcher;
+            if (m == null) {
+                m = matcher = SecretPatterns.parseAggregateSecretPattern(pattern.getPlainText());
+            }
+            return m;
+        }
+
         @Override public OutputStream decorateLogger(AbstractBuild _ignore, OutputStream logger) {
-            return new SecretPatterns.MaskingOutputStream(logger, () -> Pattern.compile(pattern.getPlainText()), charsetName);
+            return SecretPatterns.maskingOutputStream(logger, this::getMatcher, Charset.forName(charsetName));
+        }
+
+    }
+
+    /**
+     * Secrets masked by the innermost enclosing block, so that a nested block can mask them together with its own
+     * in a single {@link Filter}, rather than stacking another pass over every byte of output.
+     */
+    private static final class MaskedSecrets implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        /** The filter in effect outside the outermost of the merged blocks, if any. */
+        private final @CheckForNull ConsoleLogFilter base;
+        private final BoundSecrets secrets;
+        /** {@link #base} merged with a {@link Filter} for {@link #secrets}. */
+        private final ConsoleLogFilter filter;
+
+        private MaskedSecrets(@CheckForNull ConsoleLogFilter base, BoundSecrets secrets, ConsoleLogFilter filter) {
+            this.base = base;
+            this.secrets = secrets;
+            this.filter = filter;
+        }
+
+        /** @param unix the platform of the agent running the body, if known, which applies to the merged secrets too */
+        static MaskedSecrets nest(@CheckForNull MaskedSecrets outer, @CheckForNull ConsoleLogFilter current, Collection<String> secrets, @CheckForNull Boolean unix, String charsetName) {
+            ConsoleLogFilter base = current;
+            Set<String> all = new LinkedHashSet<>();
+            if (outer != null && outer.filter == current) {
+                // Nothing has been added to the filters since the enclosing block, so its Filter can be replaced.
+                base = outer.base;
+                all.addAll(outer.secrets.getPlainTexts());
+            }
+            all.addAll(secrets);
+            BoundSecrets bound = new BoundSecrets(all, unix);
+            return new MaskedSecrets(base, bound, BodyInvoker.mergeConsoleLogFilters(base, new Filter(bound, charsetName)));
+        }
+
+    }
+
+    /**
+     * Variables overridden by the innermost enclosing block, so that a nested block can override them together with its own
+     * in a single {@link Overrider}, rather than lengthening the chain of expanders consulted for every environment lookup.
+     */
+    private static final class Overrides implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        /** The expander in effect outside the outermost of the merged blocks, if any. */
+        private final @CheckForNull EnvironmentExpander base;
+        private final Overrider overrider;
+        /** {@link #base} merged with {@link #overrider}. */
+        private final EnvironmentExpander expander;
+
+        private Overrides(@CheckForNull EnvironmentExpander base, Overrider overrider) {
+            this.base = base;
+            this.overrider = overrider;
+            this.expander = EnvironmentExpander.merge(base, overrider);
+        }
+
+        static Overrides nest(@CheckForNull Overrides outer, @CheckForNull EnvironmentExpander current, Map<String,String> secretOverrides, Map<String,String> publicOverrides) {
+            if (outer != null && outer.expander == current) {
+                // Nothing has been added to the expanders since the enclosing block, so its Overrider can be replaced.
+                return new Overrides(outer.base, outer.overrider.with(secretOverrides, publicOverrides));
+            }
+            return new Overrides(current, new Overrider(secretOverrides, publicOverrides));
         }
 
     }
@@ -265,7 +419,8 @@ public final class BindingStep extends Step {
         @Override protected void finished(StepContext context) throws Exception {
             Exception xx = null;
 
-            for (MultiBinding.Unbinder unbinder : unbinders) {
+            // Secret directories are deleted together, in one call to the agent.
+            for (MultiBinding.Unbinder unbinder : UnbindableDir.batch(unbinders)) {
                 try {
                     unbinder.unbind(context.get(Run.class), context.get(FilePath.class), context.get(Launcher.class), context.get(TaskListener.class));
                 } catch (Exception x) {
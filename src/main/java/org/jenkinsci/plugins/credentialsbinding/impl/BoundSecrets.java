@@ -0,0 +1,73 @@
+package org.jenkinsci.plugins.credentialsbinding.impl;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.remoting.Channel;
+import hudson.util.Secret;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.jenkinsci.plugins.credentialsbinding.masking.SecretMatcher;
+import org.jenkinsci.plugins.credentialsbinding.masking.SecretPatterns;
+
+/**
+ * Secrets bound by {@link BindingStep}, shared by the objects which mask them,
+ * so that Pipeline program state holds each secret once rather than every encoded form of it.
+ * The matcher is rebuilt lazily after deserialization.
+ */
+final class BoundSecrets implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    private final List<Secret> secrets;
+    /** Whether the secrets are used on a Unix agent; null if unknown, or in builds started by older versions. */
+    private final @CheckForNull Boolean unix;
+    private transient volatile SecretMatcher matcher;
+
+    BoundSecrets(@NonNull Collection<String> secrets, @CheckForNull Boolean unix) {
+        this.unix = unix;
+        this.secrets = new ArrayList<>(secrets.size());
+        for (String secret : secrets) {
+            this.secrets.add(Secret.fromString(secret));
+        }
+    }
+
+    @NonNull List<String> getPlainTexts() {
+        List<String> plainTexts = new ArrayList<>(secrets.size());
+        for (Secret secret : secrets) {
+            plainTexts.add(secret.getPlainText());
+        }
+        return plainTexts;
+    }
+
+    boolean isEmpty() {
+        return secrets.isEmpty();
+    }
+
+    @NonNull SecretMatcher getMatcher() {
+        SecretMatcher m = matcher;
+        if (m == null) {
+            m = matcher = SecretPatterns.getAggregateSecretMatcher(getPlainTexts(), unix);
+        }
+        return m;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        // Agents cannot run the SecretPatternFactory extensions, so when sending a filter to one, include the encoded forms.
+        out.writeObject(Channel.current() != null ? Secret.fromString(getMatcher().toPattern().pattern()) : null);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        Secret pattern = (Secret) in.readObject();
+        if (pattern != null) {
+            matcher = SecretPatterns.parseAggregateSecretPattern(pattern.getPlainText());
+        }
+    }
+
+}
@@ -1,7 +1,7 @@
 package org.jenkinsci.plugins.credentialsbinding.impl;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
@@ -83,18 +83,14 @@ public class CertificateMultiBinding extends MultiBinding<StandardCertificateCre
 			m.put(passwordVariable, storePassword);
 
 		if (workspace != null) {
-			final UnbindableDir secrets = UnbindableDir.create(workspace);
-			final FilePath secret = secrets.getDirPath().createTempFile("file", null);
-			OutputStream out = secret.write();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
 			try {
 				credentials.getKeyStore().store(out, storePassword.toCharArray());
 			} catch (KeyStoreException | NoSuchAlgorithmException | CertificateException e) {
 				throw new IOException(e);
-			} finally {
-				org.apache.commons.io.IOUtils.closeQuietly(out);
 			}
-			secret.chmod(0400);
-			m.put(keystoreVariable, secret.getRemote());
+			final UnbindableDir secrets = UnbindableDir.createWithFile(workspace, out.toByteArray());
+			m.put(keystoreVariable, secrets.getFile().getRemote());
 			return new MultiEnvironment(m, secrets.getUnbinder());
 		} else {
 			return new MultiEnvironment(m);
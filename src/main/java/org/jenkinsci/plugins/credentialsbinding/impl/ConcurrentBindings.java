@@ -0,0 +1,259 @@
+package org.jenkinsci.plugins.credentialsbinding.impl;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.ClassLoaderSanityThreadFactory;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import jenkins.model.Jenkins;
+import jenkins.util.ContextResettingExecutorService;
+import jenkins.util.ErrorLoggingExecutorService;
+import org.jenkinsci.plugins.credentialsbinding.MultiBinding;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Binds and unbinds several {@link MultiBinding}s at once,
+ * since each may need a credentials lookup and several round trips to an agent.
+ * Results are always in the order of the bindings.
+ */
+final class ConcurrentBindings {
+
+    private static final ExecutorService executor = new ContextResettingExecutorService(new ErrorLoggingExecutorService(
+            Executors.newCachedThreadPool(new NamingThreadFactory(new ClassLoaderSanityThreadFactory(new DaemonThreadFactory()), "ConcurrentBindings"))));
+
+    /**
+     * Binds each of the given bindings, at most {@code concurrency} at a time.
+     * If any fails, those already bound are unbound before the failure is thrown, with any other failures suppressed.
+     * @param timings whether to log how long each binding took
+     */
+    static @NonNull List<MultiBinding.MultiEnvironment> bind(@NonNull List<? extends MultiBinding<?>> bindings, int concurrency, boolean timings,
+            @NonNull Run<?,?> build, @CheckForNull FilePath workspace, @CheckForNull Launcher launcher, @NonNull TaskListener listener) throws IOException, InterruptedException {
+        Outcome<MultiBinding.MultiEnvironment> bound = run(bindings.size(), concurrency, true, i -> {
+            long start = System.nanoTime();
+            MultiBinding.MultiEnvironment environment = bindings.get(i).bind(build, workspace, launcher, listener);
+            if (timings) {
+                listener.getLogger().printf("Bound %s in %dms%n", describe(bindings.get(i)), (System.nanoTime() - start) / 1_000_000);
+            }
+            return environment;
+        });
+        if (bound.failure != null) {
+            List<MultiBinding<?>> boundBindings = new ArrayList<>();
+            List<MultiBinding.Unbinder> unbinders = new ArrayList<>();
+            for (int i = 0; i < bindings.size(); i++) {
+                if (bound.results.get(i) != null) {
+                    boundBindings.add(bindings.get(i));
+                    unbinders.add(bound.results.get(i).getUnbinder());
+                }
+            }
+            try {
+                unbind(boundBindings, unbinders, concurrency, timings, build, workspace, launcher, listener);
+            } catch (IOException | InterruptedException | RuntimeException x) {
+                bound.failure.addSuppressed(x);
+            }
+            throw rethrow(bound.failure);
+        }
+        return bound.results;
+    }
+
+    /**
+     * Runs each unbinder, at most {@code concurrency} at a time, even if some fail.
+     * The first failure is thrown, with any others suppressed.
+     * @param bindings the binding corresponding to each unbinder, for logging
+     * @param timings whether to log how long each unbinder took
+     */
+    static void unbind(@NonNull List<? extends MultiBinding<?>> bindings, @NonNull List<MultiBinding.Unbinder> unbinders, int concurrency, boolean timings,
+            @NonNull Run<?,?> build, @CheckForNull FilePath workspace, @CheckForNull Launcher launcher, @NonNull TaskListener listener) throws IOException, InterruptedException {
+        Outcome<Void> unbound = run(unbinders.size(), concurrency, false, i -> {
+            long start = System.nanoTime();
+            unbinders.get(i).unbind(build, workspace, launcher, listener);
+            if (timings) {
+                listener.getLogger().printf("Unbound %s in %dms%n", describe(bindings.get(i)), (System.nanoTime() - start) / 1_000_000);
+            }
+            return null;
+        });
+        if (unbound.failure != null) {
+            throw rethrow(unbound.failure);
+        }
+    }
+
+    private static String describe(MultiBinding<?> binding) {
+        return binding.getDescriptor().getDisplayName() + " (" + binding.getCredentialsId() + ")";
+    }
+
+    @FunctionalInterface
+    private interface Action<T> {
+        T run(int index) throws Exception;
+    }
+
+    private static final class Outcome<T> {
+
+        /** Null where the action failed or was skipped. */
+        final List<T> results;
+        /** The failure of the earliest index which failed, with any others suppressed. */
+        final @CheckForNull Throwable failure;
+
+        Outcome(List<T> results, Throwable failure) {
+            this.results = results;
+            this.failure = failure;
+        }
+
+    }
+
+    /**
+     * Runs an action for each index in {@code [0, count)}, using the calling thread plus up to {@code concurrency - 1} others.
+     * Waits for all started actions to finish, even if interrupted.
+     * @param stopOnFailure whether to skip actions not yet started once one has failed,
+     *                      and to interrupt those in progress on other threads once the calling thread was interrupted
+     */
+    private static <T> Outcome<T> run(int count, int concurrency, boolean stopOnFailure, Action<T> action) {
+        Object[] results = new Object[count];
+        Throwable[] failures = new Throwable[count];
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean stop = new AtomicBoolean();
+        Authentication authentication = Jenkins.getAuthentication2();
+        Runnable worker = () -> {
+            try (ACLContext context = ACL.as2(authentication)) {
+                int i;
+                while (!stop.get() && (i = next.getAndIncrement()) < count) {
+                    try {
+                        results[i] = action.run(i);
+                    } catch (Exception | Error x) {
+                        failures[i] = x;
+                        if (stopOnFailure) {
+                            stop.set(true);
+                        }
+                    }
+                }
+            }
+        };
+        // Pool workers which have started and not yet finished, guarded by itself.
+        AtomicInteger active = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int k = 1; k < Math.min(concurrency, count); k++) {
+            futures.add(executor.submit(() -> {
+                synchronized (active) {
+                    if (stop.get()) {
+                        return;
+                    }
+                    active.incrementAndGet();
+                }
+                try {
+                    worker.run();
+                } finally {
+                    synchronized (active) {
+                        active.decrementAndGet();
+                        active.notifyAll();
+                    }
+                }
+            }));
+        }
+        worker.run();
+        boolean interrupted = Thread.interrupted();
+        if (stopOnFailure) {
+            // An action on this thread may also have been interrupted, clearing the flag.
+            boolean abort = interrupted;
+            for (Throwable t : failures) {
+                abort |= t instanceof InterruptedException;
+            }
+            if (abort) {
+                cancel(futures, stop, active);
+            }
+        }
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException x) {
+                    interrupted = true;
+                    if (stopOnFailure) {
+                        cancel(futures, stop, active);
+                    }
+                } catch (CancellationException x) {
+                    break;
+                } catch (ExecutionException x) {
+                    throw new AssertionError(x); // worker catches everything
+                }
+            }
+        }
+        // Cancelled workers may still be finishing the action they were interrupted in.
+        synchronized (active) {
+            while (active.get() > 0) {
+                try {
+                    active.wait();
+                } catch (InterruptedException x) {
+                    interrupted = true;
+                }
+            }
+        }
+        Throwable failure = null;
+        for (Throwable t : failures) {
+            if (t == null) {
+                continue;
+            }
+            if (failure == null) {
+                failure = t;
+            } else {
+                failure.addSuppressed(t);
+            }
+        }
+        if (interrupted) {
+            InterruptedException x = new InterruptedException();
+            if (failure != null) {
+                x.addSuppressed(failure);
+            }
+            failure = x;
+        }
+        @SuppressWarnings("unchecked")
+        List<T> list = (List<T>) Arrays.asList(results);
+        return new Outcome<>(list, failure);
+    }
+
+    /**
+     * Stops pool workers from starting further actions, and interrupts those in progress,
+     * so that for example an aborted step does not go on binding in the background.
+     */
+    private static void cancel(List<Future<?>> futures, AtomicBoolean stop, AtomicInteger active) {
+        synchronized (active) {
+            stop.set(true);
+        }
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /** Rethrows unchecked exceptions and returns checked ones, to be thrown by the caller. */
+    private static IOException rethrow(Throwable t) throws InterruptedException {
+        if (t instanceof IOException) {
+            return (IOException) t;
+        } else if (t instanceof InterruptedException) {
+            throw (InterruptedException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else {
+            return new IOException(t);
+        }
+    }
+
+    private ConcurrentBindings() {}
+
+}
@@ -0,0 +1,113 @@
+package org.jenkinsci.plugins.credentialsbinding.impl;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.IdCredentials;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.plugins.credentialsbinding.MultiBinding;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Credentials looked up by ID for each running build, so that {@link MultiBinding#variables(Run)} and {@link MultiBinding#bind}
+ * of the same binding, or repeated bindings of the same credentials, walk the credentials providers once.
+ * Entries expire after {@link #EXPIRY_SECONDS}, so that long builds still see updated credentials,
+ * and are released when the build completes.
+ */
+@Restricted(NoExternalUse.class)
+public final class CredentialsCache {
+
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "for script console")
+    public static /* not final */ int EXPIRY_SECONDS = SystemProperties.getInteger(CredentialsCache.class.getName() + ".EXPIRY_SECONDS", 60);
+
+    /** Weak in case a build is never completed, e.g. deleted while running. */
+    private static final Map<Run<?,?>, Map<String, Entry>> cache = new WeakHashMap<>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static final class Entry {
+
+        final IdCredentials credentials;
+        final long time;
+
+        Entry(IdCredentials credentials, long time) {
+            this.credentials = credentials;
+            this.time = time;
+        }
+
+    }
+
+    /**
+     * Like {@link CredentialsProvider#findCredentialById(String, Class, Run, com.cloudbees.plugins.credentials.domains.DomainRequirement...)}
+     * for {@link IdCredentials}, but cached while the build is running.
+     * Credentials which are not found are looked up again next time.
+     */
+    public static @CheckForNull IdCredentials findCredentialById(@CheckForNull String id, @NonNull Run<?,?> build) {
+        if (id == null || !build.isBuilding() || EXPIRY_SECONDS <= 0) {
+            return CredentialsProvider.findCredentialById(id, IdCredentials.class, build);
+        }
+        Map<String, Entry> entries;
+        synchronized (cache) {
+            entries = cache.computeIfAbsent(build, b -> new ConcurrentHashMap<>());
+        }
+        long now = System.nanoTime();
+        Entry entry = entries.get(id);
+        if (entry != null && now - entry.time < TimeUnit.SECONDS.toNanos(EXPIRY_SECONDS)) {
+            hits.incrementAndGet();
+            return entry.credentials;
+        }
+        misses.incrementAndGet();
+        // Not holding any lock, as providers may be slow; concurrent misses for one ID just look it up twice.
+        IdCredentials credentials = CredentialsProvider.findCredentialById(id, IdCredentials.class, build);
+        if (credentials != null) {
+            entries.put(id, new Entry(credentials, now));
+        } else {
+            entries.remove(id);
+        }
+        return credentials;
+    }
+
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /** Number of builds with cached credentials. */
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    static void release(@NonNull Run<?,?> build) {
+        synchronized (cache) {
+            cache.remove(build);
+        }
+    }
+
+    @Extension public static final class Releaser extends RunListener<Run<?,?>> {
+
+        @Override public void onCompleted(Run<?,?> run, @NonNull TaskListener listener) {
+            release(run);
+        }
+
+    }
+
+    private CredentialsCache() {}
+
+}
@@ -0,0 +1,102 @@
+package org.jenkinsci.plugins.credentialsbinding.impl;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.IdCredentials;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Records credentials usage in fingerprints off the critical path of binding.
+ * Each credentials instance is tracked once per build, however often it is bound,
+ * and the fingerprints are written in batches by a background task, or at the latest when the build completes.
+ */
+@Restricted(NoExternalUse.class)
+public final class CredentialsTracker {
+
+    private static final Logger LOGGER = Logger.getLogger(CredentialsTracker.class.getName());
+
+    private static final long FLUSH_DELAY = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * Credentials already tracked for each running build; weak in case a build is never completed.
+     * By identity rather than ID, so that credentials updated during the build, as picked up by {@link CredentialsCache}, are tracked too.
+     */
+    private static final Map<Run<?,?>, Set<IdCredentials>> tracked = new WeakHashMap<>();
+
+    /** Credentials not yet written to fingerprints, by build. */
+    private static final Map<Run<?,?>, List<IdCredentials>> pending = new LinkedHashMap<>();
+
+    private static boolean scheduled;
+
+    /**
+     * Like {@link CredentialsProvider#track(Run, com.cloudbees.plugins.credentials.Credentials)}, but deferred and de-duplicated.
+     */
+    public static void track(@NonNull Run<?,?> build, @NonNull IdCredentials credentials) {
+        synchronized (CredentialsTracker.class) {
+            if (!tracked.computeIfAbsent(build, b -> Collections.newSetFromMap(new IdentityHashMap<>())).add(credentials)) {
+                return;
+            }
+            pending.computeIfAbsent(build, b -> new ArrayList<>()).add(credentials);
+            if (!scheduled) {
+                scheduled = true;
+                Timer.get().schedule(CredentialsTracker::flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /** Writes all pending fingerprints. */
+    static void flush() {
+        Map<Run<?,?>, List<IdCredentials>> batch;
+        synchronized (CredentialsTracker.class) {
+            scheduled = false;
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+        }
+        for (Map.Entry<Run<?,?>, List<IdCredentials>> entry : batch.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static void write(Run<?,?> build, List<IdCredentials> credentials) {
+        try {
+            CredentialsProvider.trackAll(build, credentials);
+        } catch (RuntimeException x) {
+            LOGGER.log(Level.WARNING, "could not track usage of credentials in " + build, x);
+        }
+    }
+
+    @Extension public static final class Flusher extends RunListener<Run<?,?>> {
+
+        @Override public void onCompleted(Run<?,?> run, @NonNull TaskListener listener) {
+            List<IdCredentials> credentials;
+            synchronized (CredentialsTracker.class) {
+                tracked.remove(run);
+                credentials = pending.remove(run);
+            }
+            if (credentials != null) {
+                write(run, credentials);
+            }
+        }
+
+    }
+
+    private CredentialsTracker() {}
+
+}
@@ -24,6 +24,7 @@
 
 package org.jenkinsci.plugins.credentialsbinding.impl;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.Extension;
@@ -33,6 +34,7 @@ import hudson.model.Run;
 import hudson.model.TaskListener;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.jenkinsci.Symbol;
 import org.jenkinsci.plugins.credentialsbinding.BindingDescriptor;
@@ -41,6 +43,9 @@ import org.kohsuke.stapler.DataBoundConstructor;
 
 public class FileBinding extends AbstractOnDiskBinding<FileCredentials> {
 
+    /** Larger files are streamed to the agent by {@link #write} rather than read into memory by {@link #content}. */
+    private static final int MAX_CONTENT_SIZE = 1024 * 1024;
+
     @DataBoundConstructor public FileBinding(String variable, String credentialsId) {
         super(variable, credentialsId);
     }
@@ -50,10 +55,16 @@ public class FileBinding extends AbstractOnDiskBinding<FileCredentials> {
     }
 
     @Override protected final FilePath write(FileCredentials credentials, FilePath dir) throws IOException, InterruptedException {
-        FilePath secret = dir.createTempFile("file", null);
-        secret.copyFrom(credentials.getContent());
-        secret.chmod(0400);
-        return secret;
+        try (InputStream content = credentials.getContent()) {
+            return UnbindableDir.writeFile(dir, content);
+        }
+    }
+
+    @Override protected final @CheckForNull byte[] content(FileCredentials credentials) throws IOException {
+        try (InputStream content = credentials.getContent()) {
+            byte[] bytes = content.readNBytes(MAX_CONTENT_SIZE + 1);
+            return bytes.length > MAX_CONTENT_SIZE ? null : bytes;
+        }
     }
 
     @SuppressWarnings("unused")
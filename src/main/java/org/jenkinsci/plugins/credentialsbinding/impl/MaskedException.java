@@ -2,38 +2,103 @@ package org.jenkinsci.plugins.credentialsbinding.impl;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Functions;
+import hudson.Util;
+import org.jenkinsci.plugins.credentialsbinding.masking.SecretMatcher;
 
-import java.util.HashSet;
+import java.io.PrintWriter;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
-import java.util.regex.Pattern;
 
 final class MaskedException extends Exception {
     private static final long serialVersionUID = 1L;
 
-    static Throwable of(@NonNull Throwable unmasked, Pattern pattern) {
-        return of(unmasked, new HashSet<>(), pattern);
+    static Throwable of(@NonNull Throwable unmasked, SecretMatcher matcher) {
+        return new Masker(matcher).mask(unmasked);
     }
 
-    private static Throwable of(@NonNull Throwable unmasked, @NonNull Set<Throwable> visited, Pattern pattern) {
-        if (!visited.add(unmasked)) {
-            return new Exception("cycle");
+    /**
+     * Replaces every throwable whose own text, or that of any throwable it refers to, mentions a secret.
+     * Each throwable is rendered and searched once, so deep cause chains take linear time.
+     */
+    private static final class Masker {
+
+        private final SecretMatcher matcher;
+        /** Whether each throwable needs masking; null while it is being scanned. */
+        private final Map<Throwable, Boolean> needsMasking = new IdentityHashMap<>();
+        /** Whether some throwable refers back to one of its own ancestors. */
+        private boolean cyclic;
+        /** Replacements for throwables needing masking; null while being built. */
+        private final Map<Throwable, Throwable> masked = new IdentityHashMap<>();
+
+        Masker(SecretMatcher matcher) {
+            this.matcher = matcher;
+        }
+
+        Throwable mask(@NonNull Throwable unmasked) {
+            if (!scan(unmasked)) {
+                return unmasked;
+            }
+            return build(unmasked);
         }
-        var text = Functions.printThrowable(unmasked);
-        if (pattern.matcher(text).find()) {
-            var masked = new MaskedException(pattern.matcher(Objects.requireNonNullElse(unmasked.getMessage(), "")).replaceAll("****"));
-            masked.setStackTrace(unmasked.getStackTrace());
-            var cause = unmasked.getCause();
+
+        private boolean scan(Throwable t) {
+            if (needsMasking.containsKey(t)) {
+                Boolean needs = needsMasking.get(t);
+                if (needs == null) {
+                    cyclic = true;
+                    return false;
+                }
+                return needs;
+            }
+            needsMasking.put(t, null);
+            boolean needs = matcher.find(ownText(t));
+            Throwable cause = t.getCause();
             if (cause != null) {
-                masked.initCause(of(cause, visited, pattern));
+                needs |= scan(cause);
             }
-            for (var suppressed : unmasked.getSuppressed()) {
-                masked.addSuppressed(of(suppressed, visited, pattern));
+            for (Throwable suppressed : t.getSuppressed()) {
+                needs |= scan(suppressed);
             }
-            return masked;
-        } else {
-            return unmasked;
+            needsMasking.put(t, needs);
+            return needs;
         }
+
+        private Throwable build(Throwable t) {
+            if (!cyclic && !needsMasking.get(t)) {
+                return t;
+            }
+            // In a cyclic graph an unmasked throwable could lead back to a masked one, so mask everything.
+            if (masked.containsKey(t)) {
+                Throwable m = masked.get(t);
+                return m != null ? m : new Exception("cycle");
+            }
+            masked.put(t, null);
+            var m = new MaskedException(matcher.replaceAll(Objects.requireNonNullElse(t.getMessage(), ""), "****"));
+            m.setStackTrace(t.getStackTrace());
+            var cause = t.getCause();
+            if (cause != null) {
+                m.initCause(build(cause));
+            }
+            for (var suppressed : t.getSuppressed()) {
+                m.addSuppressed(build(suppressed));
+            }
+            masked.put(t, m);
+            return m;
+        }
+
+        /** What {@link Functions#printThrowable} prints for this throwable itself, excluding causes and suppressed throwables. */
+        private static String ownText(Throwable t) {
+            if (Util.isOverridden(Throwable.class, t.getClass(), "printStackTrace", PrintWriter.class)) {
+                return Functions.printThrowable(t);
+            }
+            var text = new StringBuilder(t.toString());
+            for (var element : t.getStackTrace()) {
+                text.append("\n\tat ").append(element);
+            }
+            return text.toString();
+        }
+
     }
 
     private MaskedException(String message) {
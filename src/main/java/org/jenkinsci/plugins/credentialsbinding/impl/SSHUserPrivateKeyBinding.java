@@ -41,6 +41,7 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -101,16 +102,13 @@ public class SSHUserPrivateKeyBinding extends MultiBinding<SSHUserPrivateKey> {
                                            Launcher launcher,
                                            @NonNull TaskListener listener) throws IOException, InterruptedException {
         SSHUserPrivateKey sshKey = getCredentials(build);
-        UnbindableDir keyDir = UnbindableDir.create(workspace);
-        FilePath keyFile =  keyDir.getDirPath().createTempFile("file", null);
-
         StringBuilder contents = new StringBuilder();
         for (String key : sshKey.getPrivateKeys()) {
             contents.append(key);
             contents.append('\n');
         }
-        keyFile.write(contents.toString(), "UTF-8");
-        keyFile.chmod(0400);
+        UnbindableDir keyDir = UnbindableDir.createWithFile(workspace, contents.toString().getBytes(StandardCharsets.UTF_8));
+        FilePath keyFile = keyDir.getFile();
 
         Map<String, String> secretValues = new LinkedHashMap<>();
         Map<String, String> publicValues = new LinkedHashMap<>();
@@ -26,6 +26,7 @@ package org.jenkinsci.plugins.credentialsbinding.impl;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
 import hudson.Launcher;
 import hudson.console.ConsoleLogFilter;
@@ -35,12 +36,18 @@ import hudson.model.BuildListener;
 import hudson.model.Run;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildWrapperDescriptor;
+import jenkins.util.SystemProperties;
 import org.jenkinsci.plugins.credentialsbinding.MultiBinding;
+import org.jenkinsci.plugins.credentialsbinding.masking.SecretMatcher;
 import org.jenkinsci.plugins.credentialsbinding.masking.SecretPatterns;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -54,9 +61,18 @@ import java.util.regex.Pattern;
 @SuppressWarnings({"rawtypes", "unchecked"}) // inherited from BuildWrapper
 public class SecretBuildWrapper extends BuildWrapper {
 
+    /**
+     * Maximum number of bindings to set up or tear down at once.
+     * Greater than 1 to enable concurrent binding, which also logs how long each binding took.
+     */
+    @Restricted(NoExternalUse.class)
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "for script console")
+    public static /* not final */ int CONCURRENCY = SystemProperties.getInteger(SecretBuildWrapper.class.getName() + ".CONCURRENCY", 1);
+
     private /*almost final*/ List<? extends MultiBinding<?>> bindings;
 
-    private final static Map<AbstractBuild<?, ?>, Collection<String>> secretsForBuild = new WeakHashMap<>();
+    /** Secrets of builds in progress, written from concurrent {@link #setUp} and log stream {@code close} calls. */
+    private final static Map<AbstractBuild<?, ?>, BuildSecrets> secretsForBuild = Collections.synchronizedMap(new WeakHashMap<>());
 
     /**
      * Gets the {@link Pattern} for the secret values for a given build, if that build has secrets defined. If not, return
@@ -65,11 +81,42 @@ public class SecretBuildWrapper extends BuildWrapper {
      * @return A compiled {@link Pattern} from the build's secret values, if the build has any.
      */
     public static @CheckForNull Pattern getPatternForBuild(@NonNull AbstractBuild<?, ?> build) {
-        if (secretsForBuild.containsKey(build)) {
-            return SecretPatterns.getAggregateSecretPattern(secretsForBuild.get(build));
-        } else {
-            return null;
+        SecretMatcher matcher = getSecretMatcherForBuild(build);
+        return matcher != null ? matcher.toPattern() : null;
+    }
+
+    /**
+     * Like {@link #getPatternForBuild} but returns a {@link SecretMatcher}, which is cheaper to match against.
+     * @param build A non-null build.
+     * @return A matcher for the build's secret values, if the build has any.
+     */
+    public static @CheckForNull SecretMatcher getSecretMatcherForBuild(@NonNull AbstractBuild<?, ?> build) {
+        BuildSecrets secrets = secretsForBuild.get(build);
+        return secrets != null ? secrets.getMatcher() : null;
+    }
+
+    /**
+     * Secrets bound for one build, with the matcher built on first use and then kept for the rest of the build.
+     */
+    private static final class BuildSecrets {
+
+        private final Collection<String> secrets;
+        private final boolean unix;
+        private volatile SecretMatcher matcher;
+
+        BuildSecrets(Collection<String> secrets, boolean unix) {
+            this.secrets = secrets;
+            this.unix = unix;
+        }
+
+        SecretMatcher getMatcher() {
+            SecretMatcher m = matcher;
+            if (m == null) {
+                m = matcher = SecretPatterns.getAggregateSecretMatcher(secrets, unix);
+            }
+            return m;
         }
+
     }
 
     @DataBoundConstructor public SecretBuildWrapper(List<? extends MultiBinding<?>> bindings) {
@@ -86,18 +133,17 @@ public class SecretBuildWrapper extends BuildWrapper {
     }
 
     @Override public Environment setUp(AbstractBuild build, final Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
-        final List<MultiBinding.MultiEnvironment> m = new ArrayList<>();
+        final List<? extends MultiBinding<?>> bindings = this.bindings;
+        final List<MultiBinding.MultiEnvironment> m = ConcurrentBindings.bind(bindings, CONCURRENCY, CONCURRENCY > 1, build, build.getWorkspace(), launcher, listener);
 
         Set<String> secrets = new HashSet<>();
 
-        for (MultiBinding binding : bindings) {
-            MultiBinding.MultiEnvironment e = binding.bind(build, build.getWorkspace(), launcher, listener);
-            m.add(e);
+        for (MultiBinding.MultiEnvironment e : m) {
             secrets.addAll(e.getSecretValues().values());
         }
 
         if (!secrets.isEmpty()) {
-            secretsForBuild.put(build, secrets);
+            secretsForBuild.put(build, new BuildSecrets(secrets, launcher.isUnix()));
         }
 
         return new Environment() {
@@ -112,9 +158,11 @@ public class SecretBuildWrapper extends BuildWrapper {
                 }
             }
             @Override public boolean tearDown(AbstractBuild build, BuildListener listener) throws IOException, InterruptedException {
+                List<MultiBinding.Unbinder> unbinders = new ArrayList<>();
                 for (MultiBinding.MultiEnvironment e : m) {
-                    e.getUnbinder().unbind(build, build.getWorkspace(), launcher, listener);
+                    unbinders.add(e.getUnbinder());
                 }
+                ConcurrentBindings.unbind(bindings, unbinders, CONCURRENCY, CONCURRENCY > 1, build, build.getWorkspace(), launcher, listener);
                 return true;
             }
         };
@@ -147,7 +195,10 @@ public class SecretBuildWrapper extends BuildWrapper {
         }
 
         @Override public OutputStream decorateLogger(AbstractBuild build, OutputStream logger) {
-            return new SecretPatterns.MaskingOutputStream(logger, () -> getPatternForBuild(build), charsetName) {
+            return new FilterOutputStream(SecretPatterns.maskingOutputStream(logger, () -> getSecretMatcherForBuild(build), Charset.forName(charsetName))) {
+                @Override public void write(@NonNull byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
                 @Override public void close() throws IOException {
                     super.close();
                     secretsForBuild.remove(build);
@@ -1,9 +1,25 @@
 package org.jenkinsci.plugins.credentialsbinding.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.jenkinsci.plugins.credentialsbinding.BindingDescriptor;
 import org.jenkinsci.plugins.credentialsbinding.MultiBinding.Unbinder;
 import org.kohsuke.accmod.Restricted;
@@ -13,7 +29,10 @@ import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
 import hudson.slaves.WorkspaceList;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.SystemProperties;
 
 /**
  * Convenience class for creating a secure temporary directory dedicated to writing credentials file(s), and getting a
@@ -21,11 +40,34 @@ import hudson.slaves.WorkspaceList;
  */
 public class UnbindableDir {
 
+    private static final Logger LOGGER = Logger.getLogger(UnbindableDir.class.getName());
+
+    /**
+     * Age after which a directory under {@code secretFiles} not belonging to any known {@link Unbinder} is deleted,
+     * as left behind by builds which were killed or lost before unbinding. Zero or less disables the sweeper.
+     */
+    @Restricted(NoExternalUse.class)
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "for script console")
+    public static /* not final */ int STALE_MINUTES = SystemProperties.getInteger(UnbindableDir.class.getName() + ".STALE_MINUTES", 24 * 60);
+
+    private static final long SWEEP_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Unbinders not yet run, whose directories the sweeper leaves alone.
+     * Weak, so that the unbinder of a build which was killed before unbinding goes away with the build.
+     */
+    private static final Set<UnbinderImpl> live = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    /** When each {@code secretFiles} directory was last swept, by agent channel and path. */
+    private static final Map<VirtualChannel, Map<String, Long>> lastSwept = Collections.synchronizedMap(new WeakHashMap<>());
+
     private final FilePath dirPath;
+    private final FilePath file;
     private final Unbinder unbinder;
 
-    private UnbindableDir(FilePath dirPath) {
+    private UnbindableDir(FilePath dirPath, FilePath file) {
         this.dirPath = dirPath;
+        this.file = file;
         this.unbinder = new UnbinderImpl(dirPath.getName());
     }
 
@@ -37,6 +79,13 @@ public class UnbindableDir {
         return dirPath;
     }
 
+    /**
+     * @return the file written by {@link #createWithFile}, or null if this directory was created by {@link #create}
+     */
+    public @CheckForNull FilePath getFile() {
+        return file;
+    }
+
     /**
      * Creates a new, secure, directory under a base workspace temporary directory. Also instantiates
      * an {@link Unbinder} for deleting this directory later. This can only safely be used for binding
@@ -54,7 +103,55 @@ public class UnbindableDir {
         dir.mkdirs();
         secrets.chmod(0700);
         dir.chmod(0700);
-        return new UnbindableDir(dir);
+        return new UnbindableDir(dir, null);
+    }
+
+    /**
+     * Like {@link #create}, but also writes a read-only file with the given content into the new directory.
+     * Everything is done in a single call to the agent, rather than one call per file operation.
+     * @param workspace The workspace, can't be null (temporary dirs are created next to it)
+     * @param content the content of the file, available from {@link #getFile}
+     */
+    public static UnbindableDir createWithFile(@NonNull FilePath workspace, @NonNull byte[] content)
+            throws IOException, InterruptedException {
+        final FilePath secrets = secretsDir(workspace);
+        final String dirName = UUID.randomUUID().toString();
+        final FilePath dir = secrets.child(dirName);
+        final String fileName = secrets.act(new CreateWithFile(dirName, content));
+        return new UnbindableDir(dir, dir.child(fileName));
+    }
+
+    private static final class CreateWithFile extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1;
+        private final String dirName;
+        private final byte[] content;
+
+        CreateWithFile(String dirName, byte[] content) {
+            this.dirName = dirName;
+            this.content = content;
+        }
+
+        @Override
+        public String invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            // Same steps as create and writeFile, but all local to the agent.
+            final FilePath secrets = new FilePath(f);
+            final FilePath dir = secrets.child(dirName);
+            dir.mkdirs();
+            secrets.chmod(0700);
+            dir.chmod(0700);
+            return writeFile(dir, new ByteArrayInputStream(content)).getName();
+        }
+    }
+
+    /**
+     * Writes a read-only file with the given content into a directory created by this class.
+     * @return the new file
+     */
+    static FilePath writeFile(@NonNull FilePath dir, @NonNull InputStream content) throws IOException, InterruptedException {
+        final FilePath secret = dir.createTempFile("file", null);
+        secret.copyFrom(content);
+        secret.chmod(0400);
+        return secret;
     }
 
     private static FilePath secretsDir(FilePath workspace) throws IOException {
@@ -66,6 +163,138 @@ public class UnbindableDir {
     }
 
 
+    /**
+     * Replaces the unbinders created by this class with one deleting all their directories in a single call to the agent.
+     * The others are kept, in order.
+     * @param unbinders the unbinders of one step, which all use the same workspace
+     */
+    static List<Unbinder> batch(List<Unbinder> unbinders) {
+        List<Unbinder> batched = new ArrayList<>();
+        List<UnbinderImpl> batch = new ArrayList<>();
+        for (Unbinder unbinder : unbinders) {
+            if (unbinder.getClass() == UnbinderImpl.class) {
+                if (batch.isEmpty()) {
+                    batched.add(new BatchUnbinder(batch));
+                }
+                batch.add((UnbinderImpl) unbinder);
+            } else {
+                batched.add(unbinder);
+            }
+        }
+        return batched;
+    }
+
+    private static void delete(FilePath workspace, List<UnbinderImpl> unbinders) throws IOException, InterruptedException {
+        final FilePath secrets = secretsDir(workspace);
+        List<String> dirNames = new ArrayList<>();
+        for (UnbinderImpl unbinder : unbinders) {
+            dirNames.add(unbinder.dirName);
+        }
+        try {
+            secrets.act(new Delete(dirNames));
+        } finally {
+            // Whatever could not be deleted is left to the sweeper.
+            live.removeAll(unbinders);
+        }
+        sweep(secrets);
+    }
+
+    /**
+     * Deletes stale directories in the background, at most once per {@link #SWEEP_INTERVAL} for each directory.
+     */
+    private static void sweep(FilePath secrets) throws InterruptedException {
+        if (STALE_MINUTES <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, Long> swept = lastSwept.computeIfAbsent(secrets.getChannel(), c -> new ConcurrentHashMap<>());
+        Long last = swept.put(secrets.getRemote(), now);
+        if (last != null && now - last < SWEEP_INTERVAL) {
+            swept.put(secrets.getRemote(), last);
+            return;
+        }
+        try {
+            secrets.actAsync(newSweep());
+        } catch (IOException x) {
+            LOGGER.log(Level.FINE, "could not sweep " + secrets, x);
+        }
+    }
+
+    /** Sweeps the {@code secretFiles} directory of a workspace right away, waiting for it to finish. */
+    static void sweepNow(@NonNull FilePath workspace) throws IOException, InterruptedException {
+        secretsDir(workspace).act(newSweep());
+    }
+
+    private static Sweep newSweep() {
+        Set<String> liveNames = new HashSet<>();
+        synchronized (live) {
+            for (UnbinderImpl unbinder : live) {
+                liveNames.add(unbinder.dirName);
+            }
+        }
+        return new Sweep(liveNames, TimeUnit.MINUTES.toMillis(STALE_MINUTES));
+    }
+
+    private static final class Delete extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1;
+        private final List<String> dirNames;
+
+        Delete(List<String> dirNames) {
+            this.dirNames = dirNames;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            IOException failure = null;
+            for (String dirName : dirNames) {
+                try {
+                    new FilePath(new File(f, dirName)).deleteRecursive();
+                } catch (IOException x) {
+                    if (failure == null) {
+                        failure = x;
+                    } else {
+                        failure.addSuppressed(x);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+    }
+
+    private static final class Sweep extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1;
+        private final Set<String> live;
+        private final long maxAge;
+
+        Sweep(Set<String> live, long maxAge) {
+            this.live = live;
+            this.maxAge = maxAge;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            File[] children = f.listFiles();
+            if (children == null) {
+                return null;
+            }
+            // Measured against the agent clock, like the modification times.
+            long cutoff = System.currentTimeMillis() - maxAge;
+            for (File child : children) {
+                if (!live.contains(child.getName()) && child.lastModified() < cutoff) {
+                    try {
+                        new FilePath(child).deleteRecursive();
+                    } catch (IOException x) {
+                        LOGGER.log(Level.WARNING, "could not delete stale " + child, x);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
     @Restricted(NoExternalUse.class)
     protected static class UnbinderImpl implements Unbinder {
         private static final long serialVersionUID = 1;
@@ -73,6 +302,29 @@ public class UnbindableDir {
 
         protected UnbinderImpl(String dirName) {
             this.dirName = dirName;
+            live.add(this);
+        }
+
+        private Object readResolve() {
+            live.add(this);
+            return this;
+        }
+
+        @Override
+        public void unbind(@NonNull Run<?, ?> build,
+                FilePath workspace,
+                Launcher launcher,
+                @NonNull TaskListener listener) throws IOException, InterruptedException {
+            delete(workspace, List.of(this));
+        }
+    }
+
+    private static final class BatchUnbinder implements Unbinder {
+        private static final long serialVersionUID = 1;
+        private final List<UnbinderImpl> unbinders;
+
+        BatchUnbinder(List<UnbinderImpl> unbinders) {
+            this.unbinders = unbinders;
         }
 
         @Override
@@ -80,7 +332,7 @@ public class UnbindableDir {
                 FilePath workspace,
                 Launcher launcher,
                 @NonNull TaskListener listener) throws IOException, InterruptedException {
-            secretsDir(workspace).child(dirName).deleteRecursive();
+            delete(workspace, unbinders);
         }
     }
 
@@ -45,4 +45,9 @@ public class BatchSecretPatternFactory implements SecretPatternFactory {
                 ? Collections.singleton(QUOTED_CHARS.matcher(input).replaceAll("$2"))
                 : Collections.emptySet();
     }
+
+    @Override
+    public boolean isApplicable(boolean unix) {
+        return !unix;
+    }
 }
@@ -0,0 +1,502 @@
+package org.jenkinsci.plugins.credentialsbinding.masking;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Aho-Corasick automaton over a fixed set of literal symbol sequences.
+ * Symbols are {@code char}s or unsigned bytes depending on how the automaton was built.
+ * Searches return the leftmost match, preferring the longest literal starting there,
+ * which is what the alternation built by {@link SecretPatterns#getAggregateSecretPattern} would find.
+ */
+final class LiteralAutomaton {
+
+    /** Transitions out of state {@code s} are at indices {@code [edgeStart[s], edgeStart[s + 1])}, sorted by symbol. */
+    private final int[] edgeStart;
+    private final int[] edgeSymbol;
+    private final int[] edgeTarget;
+    /** Transitions out of the root for symbols below 256, or 0 to stay at the root. */
+    private final int[] rootNext;
+    private final int[] fail;
+    private final int[] depth;
+    /** Length of the longest literal which is a suffix of the text spelled by a state, or 0. */
+    private final int[] match;
+    private final int maxLength;
+    /** If determinized, the complete transition function, indexed by {@code state * classes + classOf(symbol)}. */
+    private int[] delta;
+    /** Number of symbol classes: one per distinct symbol in the literals, plus class 0 for every other symbol. */
+    private int classes;
+    private int[] byteClass;
+    /** Sorted symbols of 256 or above appearing in the literals, and their classes. */
+    private int[] otherSymbols;
+    private int[] otherClasses;
+    /** Number of leading symbols of each literal covered by the prefilter: the length of the shortest literal, at most 4. */
+    private final int prefixLength;
+    /** Set of symbols below 256 which begin some literal. */
+    private final long[] firstSymbols = new long[4];
+    /** Whether some literal begins with a symbol of 256 or above, which the prefilter then lets through. */
+    private final boolean wideFirstSymbol;
+    /**
+     * If few enough distinct bytes begin the literals, each of them repeated across a {@code long},
+     * so that {@link #skip(byte[], int, int)} can compare eight bytes of text at a time; otherwise null.
+     */
+    private final long[] firstByteWords;
+    /** One-hash Bloom filter over the first {@link #prefixLength} symbols of each literal. */
+    private final long[] prefixes;
+    private final int prefixShift;
+
+    /**
+     * Builds an automaton, determinizing it if asked to, there are at least {@link SecretPatterns#DFA_THRESHOLD} literals,
+     * and the transition table would have no more than {@link SecretPatterns#DFA_MAX_TABLE_SIZE} entries.
+     * @param determinize whether the automaton is used heavily enough to be worth the memory of a transition table
+     * @param what a description of the literals, for logging
+     */
+    static @NonNull LiteralAutomaton compile(@NonNull List<int[]> literals, boolean determinize, @NonNull String what) {
+        long start = System.nanoTime();
+        LiteralAutomaton automaton = new LiteralAutomaton(literals);
+        if (determinize && literals.size() >= SecretPatterns.DFA_THRESHOLD) {
+            int[] symbols = Arrays.stream(automaton.edgeSymbol).distinct().sorted().toArray();
+            if ((long) automaton.size() * (symbols.length + 1) <= SecretPatterns.DFA_MAX_TABLE_SIZE) {
+                automaton.determinize(symbols);
+            } else {
+                LOGGER.fine(() -> "Not determinizing " + what + ": " + automaton.size() + " states with " + (symbols.length + 1) + " symbol classes is too many");
+            }
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(String.format("Compiled %d %s into a%s automaton with %d states in %.2fms, about %d KiB",
+                    literals.size(), what, automaton.delta != null ? " deterministic" : "n Aho-Corasick", automaton.size(),
+                    (System.nanoTime() - start) / 1e6, automaton.footprint() / 1024));
+        }
+        return automaton;
+    }
+
+    LiteralAutomaton(@NonNull List<int[]> literals) {
+        // Build a trie with first-child/next-sibling links, then freeze it into flat arrays.
+        int capacity = 1;
+        for (int[] literal : literals) {
+            capacity += literal.length;
+        }
+        int[] firstChild = new int[capacity];
+        int[] nextSibling = new int[capacity];
+        int[] label = new int[capacity];
+        int[] depth = new int[capacity];
+        int[] match = new int[capacity];
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(nextSibling, -1);
+        int states = 1;
+        int maxLength = 0;
+        for (int[] literal : literals) {
+            int s = 0;
+            for (int symbol : literal) {
+                int t = child(firstChild, nextSibling, label, s, symbol);
+                if (t < 0) {
+                    t = states++;
+                    label[t] = symbol;
+                    depth[t] = depth[s] + 1;
+                    nextSibling[t] = firstChild[s];
+                    firstChild[s] = t;
+                }
+                s = t;
+            }
+            if (s != 0) {
+                match[s] = depth[s];
+                maxLength = Math.max(maxLength, depth[s]);
+            }
+        }
+        // Breadth-first, so that failure targets (always shallower) are complete before they are consulted.
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = 0;
+        while (head < tail) {
+            int u = queue[head++];
+            for (int v = firstChild[u]; v >= 0; v = nextSibling[v]) {
+                if (u != 0) {
+                    int f = fail[u];
+                    while (true) {
+                        int x = child(firstChild, nextSibling, label, f, label[v]);
+                        if (x >= 0) {
+                            fail[v] = x;
+                            break;
+                        }
+                        if (f == 0) {
+                            break;
+                        }
+                        f = fail[f];
+                    }
+                }
+                if (match[v] == 0) {
+                    match[v] = match[fail[v]];
+                }
+                queue[tail++] = v;
+            }
+        }
+        edgeStart = new int[states + 1];
+        edgeSymbol = new int[states - 1];
+        edgeTarget = new int[states - 1];
+        rootNext = new int[256];
+        int e = 0;
+        long[] scratch = new long[0];
+        for (int s = 0; s < states; s++) {
+            edgeStart[s] = e;
+            int n = 0;
+            for (int v = firstChild[s]; v >= 0; v = nextSibling[v]) {
+                n++;
+            }
+            if (scratch.length < n) {
+                scratch = new long[n];
+            }
+            int i = 0;
+            for (int v = firstChild[s]; v >= 0; v = nextSibling[v]) {
+                scratch[i++] = ((long) label[v] << 32) | v;
+            }
+            Arrays.sort(scratch, 0, n);
+            for (i = 0; i < n; i++) {
+                edgeSymbol[e] = (int) (scratch[i] >>> 32);
+                edgeTarget[e] = (int) scratch[i];
+                if (s == 0 && edgeSymbol[e] < 256) {
+                    rootNext[edgeSymbol[e]] = edgeTarget[e];
+                }
+                e++;
+            }
+        }
+        edgeStart[states] = e;
+        this.fail = fail;
+        this.depth = Arrays.copyOf(depth, states);
+        this.match = Arrays.copyOf(match, states);
+        this.maxLength = maxLength;
+        int prefixLength = Integer.MAX_VALUE;
+        boolean wideFirstSymbol = false;
+        for (int[] literal : literals) {
+            if (literal.length > 0) {
+                prefixLength = Math.min(prefixLength, literal.length);
+                if (literal[0] < 256) {
+                    firstSymbols[literal[0] >> 6] |= 1L << literal[0];
+                } else {
+                    wideFirstSymbol = true;
+                }
+            }
+        }
+        this.prefixLength = Math.min(prefixLength, 4);
+        this.wideFirstSymbol = wideFirstSymbol;
+        int firstByteCount = Long.bitCount(firstSymbols[0]) + Long.bitCount(firstSymbols[1]) + Long.bitCount(firstSymbols[2]) + Long.bitCount(firstSymbols[3]);
+        if (firstByteCount > 0 && firstByteCount <= MAX_WORD_FIRST_BYTES && !wideFirstSymbol) {
+            firstByteWords = new long[firstByteCount];
+            for (int b = 0, k = 0; b < 256; b++) {
+                if ((firstSymbols[b >> 6] & (1L << b)) != 0) {
+                    firstByteWords[k++] = b * LOW_BITS;
+                }
+            }
+        } else {
+            firstByteWords = null;
+        }
+        // About 16 bits per literal keeps false positives rare.
+        int bits = Math.max(10, 32 - Integer.numberOfLeadingZeros(Math.max(1, literals.size()) * 16 - 1));
+        prefixes = new long[1 << (bits - 6)];
+        prefixShift = 32 - bits;
+        for (int[] literal : literals) {
+            if (literal.length > 0) {
+                int h = 0;
+                for (int i = 0; i < this.prefixLength; i++) {
+                    h = h * 31 + literal[i];
+                }
+                int bit = (h * 0x9E3779B9) >>> prefixShift;
+                prefixes[bit >> 6] |= 1L << bit;
+            }
+        }
+    }
+
+    private boolean mayBeginWith(int prefixHash) {
+        int bit = (prefixHash * 0x9E3779B9) >>> prefixShift;
+        return (prefixes[bit >> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Cheaply skips ahead to the first offset at which some literal might begin,
+     * checking the first symbol and then the prefix of each candidate.
+     * @return an offset at or after {@code from}, or -1 if no literal can occur within {@code text[from, to)}
+     */
+    int skip(@NonNull CharSequence text, int from, int to) {
+        for (int i = from, last = to - prefixLength; i <= last; i++) {
+            int first = text.charAt(i);
+            if (first < 256 ? (firstSymbols[first >> 6] & (1L << first)) == 0 : !wideFirstSymbol) {
+                continue;
+            }
+            int h = 0;
+            for (int j = i; j < i + prefixLength; j++) {
+                h = h * 31 + text.charAt(j);
+            }
+            if (mayBeginWith(h)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Like {@link #skip(CharSequence, int, int)} but over bytes.
+     */
+    int skip(@NonNull byte[] text, int from, int to) {
+        for (int i = from, last = to - prefixLength; i <= last; i++) {
+            if (firstByteWords != null) {
+                i = nextFirstByte(text, i, to);
+                if (i < 0 || i > last) {
+                    return -1;
+                }
+            } else {
+                int first = text[i] & 0xFF;
+                if ((firstSymbols[first >> 6] & (1L << first)) == 0) {
+                    continue;
+                }
+            }
+            int h = 0;
+            for (int j = i; j < i + prefixLength; j++) {
+                h = h * 31 + (text[j] & 0xFF);
+            }
+            if (mayBeginWith(h)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the next byte which begins some literal, comparing a word at a time against {@link #firstByteWords}.
+     * @return its offset, or -1 if there is none in {@code text[from, to)}
+     */
+    private int nextFirstByte(byte[] text, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = (long) LONGS.get(text, i);
+            long hits = 0;
+            for (long firstByteWord : firstByteWords) {
+                // Sets the high bit of the lowest byte equal to the first byte; higher bits may be spurious.
+                long x = word ^ firstByteWord;
+                hits |= (x - LOW_BITS) & ~x & HIGH_BITS;
+            }
+            if (hits != 0) {
+                return i + (Long.numberOfTrailingZeros(hits) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            int b = text[i] & 0xFF;
+            if ((firstSymbols[b >> 6] & (1L << b)) != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Precomputes every transition, failure links included, so that matching is a single table lookup per symbol.
+     */
+    private void determinize(int[] symbols) {
+        int states = size();
+        classes = symbols.length + 1;
+        byteClass = new int[256];
+        int others = 0;
+        for (int symbol : symbols) {
+            if (symbol >= 256) {
+                others++;
+            }
+        }
+        otherSymbols = new int[others];
+        otherClasses = new int[others];
+        int o = 0;
+        for (int i = 0; i < symbols.length; i++) {
+            if (symbols[i] < 256) {
+                byteClass[symbols[i]] = i + 1;
+            } else {
+                otherSymbols[o] = symbols[i];
+                otherClasses[o++] = i + 1;
+            }
+        }
+        // Failure targets are always shallower, so visit states by depth and start each row as a copy of that of its target.
+        int[] byDepth = new int[states];
+        int[] count = new int[maxLength + 2];
+        for (int d : depth) {
+            count[d + 1]++;
+        }
+        for (int d = 1; d < count.length; d++) {
+            count[d] += count[d - 1];
+        }
+        for (int s = 0; s < states; s++) {
+            byDepth[count[depth[s]]++] = s;
+        }
+        int[] delta = new int[states * classes];
+        for (int s : byDepth) {
+            if (s != 0) {
+                System.arraycopy(delta, fail[s] * classes, delta, s * classes, classes);
+            }
+            for (int e = edgeStart[s]; e < edgeStart[s + 1]; e++) {
+                delta[s * classes + classOf(edgeSymbol[e])] = edgeTarget[e];
+            }
+        }
+        this.delta = delta;
+    }
+
+    private int classOf(int symbol) {
+        if (symbol < 256) {
+            return byteClass[symbol];
+        }
+        int i = Arrays.binarySearch(otherSymbols, symbol);
+        return i >= 0 ? otherClasses[i] : 0;
+    }
+
+    /** Approximate heap size in bytes. */
+    long footprint() {
+        long ints = edgeStart.length + edgeSymbol.length + edgeTarget.length + rootNext.length + fail.length + depth.length + match.length + prefixes.length * 2L;
+        if (delta != null) {
+            ints += delta.length + byteClass.length + otherSymbols.length + otherClasses.length;
+        }
+        return ints * 4;
+    }
+
+    boolean isDeterministic() {
+        return delta != null;
+    }
+
+    private static int child(int[] firstChild, int[] nextSibling, int[] label, int s, int symbol) {
+        for (int v = firstChild[s]; v >= 0; v = nextSibling[v]) {
+            if (label[v] == symbol) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    /** Number of states, including the root. */
+    int size() {
+        return depth.length;
+    }
+
+    /** Length in symbols of the longest literal, or 0 if there are none. */
+    int maxLength() {
+        return maxLength;
+    }
+
+    boolean isEmpty() {
+        return maxLength == 0;
+    }
+
+    private int step(int state, int symbol) {
+        if (delta != null) {
+            return delta[state * classes + classOf(symbol)];
+        }
+        while (true) {
+            if (state == 0) {
+                if (symbol < 256) {
+                    return rootNext[symbol];
+                }
+                int t = edge(0, symbol);
+                return t < 0 ? 0 : t;
+            }
+            int t = edge(state, symbol);
+            if (t >= 0) {
+                return t;
+            }
+            state = fail[state];
+        }
+    }
+
+    private int edge(int state, int symbol) {
+        int lo = edgeStart[state];
+        int hi = edgeStart[state + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int m = edgeSymbol[mid];
+            if (m < symbol) {
+                lo = mid + 1;
+            } else if (m > symbol) {
+                hi = mid - 1;
+            } else {
+                return edgeTarget[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the leftmost, longest literal within {@code text[from, to)}.
+     * @return the start index in the upper and the end index (exclusive) in the lower 32 bits, or -1 if there is no match
+     */
+    long find(@NonNull CharSequence text, int from, int to) {
+        from = skip(text, from, to);
+        if (from < 0) {
+            return -1;
+        }
+        int state = 0;
+        int bestStart = -1;
+        int bestEnd = -1;
+        for (int i = from; i < to; i++) {
+            state = step(state, text.charAt(i));
+            int m = match[state];
+            if (m > 0) {
+                int start = i + 1 - m;
+                if (bestStart < 0 || start <= bestStart) {
+                    bestStart = start;
+                    bestEnd = i + 1;
+                }
+            }
+            if (bestStart >= 0 && i + 1 - depth[state] > bestStart) {
+                // No partial match in progress could start at or before the best one, so it cannot be improved.
+                break;
+            }
+        }
+        return bestStart < 0 ? -1 : ((long) bestStart << 32) | bestEnd;
+    }
+
+    /**
+     * Like {@link #find(CharSequence, int, int)} but over bytes, for automata built from encoded forms.
+     */
+    long find(@NonNull byte[] text, int from, int to) {
+        from = skip(text, from, to);
+        if (from < 0) {
+            return -1;
+        }
+        int state = 0;
+        int bestStart = -1;
+        int bestEnd = -1;
+        for (int i = from; i < to; i++) {
+            state = step(state, text[i] & 0xFF);
+            int m = match[state];
+            if (m > 0) {
+                int start = i + 1 - m;
+                if (bestStart < 0 || start <= bestStart) {
+                    bestStart = start;
+                    bestEnd = i + 1;
+                }
+            }
+            if (bestStart >= 0 && i + 1 - depth[state] > bestStart) {
+                break;
+            }
+        }
+        return bestStart < 0 ? -1 : ((long) bestStart << 32) | bestEnd;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(LiteralAutomaton.class.getName());
+
+    /** Beyond this many distinct first bytes, comparing words costs more than testing each byte against {@link #firstSymbols}. */
+    private static final int MAX_WORD_FIRST_BYTES = 4;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    /** Little-endian, so that the lowest set bit of a word corresponds to the earliest byte. */
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    static int start(long found) {
+        return (int) (found >>> 32);
+    }
+
+    static int end(long found) {
+        return (int) found;
+    }
+
+}
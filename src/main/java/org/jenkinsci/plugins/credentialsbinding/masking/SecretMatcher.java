@@ -0,0 +1,242 @@
+package org.jenkinsci.plugins.credentialsbinding.masking;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Finds and masks occurrences of a set of secrets in text.
+ * Instances are immutable and may be shared between threads.
+ * @see SecretPatterns#getAggregateSecretMatcher
+ */
+public abstract class SecretMatcher {
+
+    SecretMatcher() {}
+
+    /**
+     * @return true if there is nothing to mask, in which case text may be passed through unexamined
+     */
+    public abstract boolean isEmpty();
+
+    /**
+     * @return true if the text contains at least one secret
+     */
+    public abstract boolean find(@NonNull CharSequence text);
+
+    /**
+     * Replaces every occurrence of a secret, leftmost first and preferring the longest form at a given position.
+     */
+    public abstract @NonNull String replaceAll(@NonNull CharSequence text, @NonNull String replacement);
+
+    /**
+     * Writes {@code b[off, off + len)} to {@code out}, replacing every occurrence of a secret.
+     * The default implementation decodes the bytes to a string and encodes the result again if anything matched.
+     * @param charset the encoding of the bytes
+     */
+    public void mask(@NonNull byte[] b, int off, int len, @NonNull Charset charset, @NonNull String replacement, @NonNull OutputStream out) throws IOException {
+        String text = new String(b, off, len, charset);
+        if (find(text)) {
+            out.write(replaceAll(text, replacement).getBytes(charset));
+        } else {
+            out.write(b, off, len);
+        }
+    }
+
+    /**
+     * @return an automaton over the encoded forms, if secrets can be matched directly on bytes in this charset
+     */
+    @CheckForNull LiteralAutomaton encoded(@NonNull Charset charset) {
+        return null;
+    }
+
+    /**
+     * @return an equivalent regular expression, for callers which still need one
+     */
+    public abstract @NonNull Pattern toPattern();
+
+    /**
+     * Wraps an arbitrary regular expression, such as one passed to {@link SecretPatterns.MaskingOutputStream} by other plugins.
+     * As with the historical behavior, an empty expression is taken to mean that there is nothing to mask.
+     */
+    public static @NonNull SecretMatcher of(@NonNull Pattern pattern) {
+        return new RegexSecretMatcher(pattern);
+    }
+
+    static @NonNull SecretMatcher literal(@NonNull List<String> forms) {
+        return new LiteralSecretMatcher(forms);
+    }
+
+    private static final class RegexSecretMatcher extends SecretMatcher {
+
+        private final Pattern pattern;
+
+        RegexSecretMatcher(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override public boolean isEmpty() {
+            return pattern.pattern().isEmpty();
+        }
+
+        @Override public boolean find(@NonNull CharSequence text) {
+            return pattern.matcher(text).find();
+        }
+
+        @NonNull
+        @Override public String replaceAll(@NonNull CharSequence text, @NonNull String replacement) {
+            return pattern.matcher(text).replaceAll(replacement);
+        }
+
+        @NonNull
+        @Override public Pattern toPattern() {
+            return pattern;
+        }
+
+    }
+
+    /**
+     * Matches a fixed list of encoded forms with a {@link LiteralAutomaton}, so that the cost of a scan depends on
+     * the length of the text rather than on the number of forms.
+     */
+    private static final class LiteralSecretMatcher extends SecretMatcher {
+
+        private final List<String> forms;
+        private final boolean empty;
+        /** Built on first use, as console logs are masked with the automata in {@link #byCharset} instead. */
+        private volatile LiteralAutomaton automaton;
+        private volatile Pattern pattern;
+        /** Automata over the encoded forms, by charset; {@link Optional#empty} where the charset is not suitable. */
+        private final Map<Charset, Optional<LiteralAutomaton>> byCharset = new ConcurrentHashMap<>();
+
+        LiteralSecretMatcher(List<String> forms) {
+            this.forms = List.copyOf(forms);
+            this.empty = this.forms.stream().allMatch(String::isEmpty);
+        }
+
+        private LiteralAutomaton automaton() {
+            LiteralAutomaton a = automaton;
+            if (a == null) {
+                a = automaton = LiteralAutomaton.compile(forms.stream().map(form -> form.chars().toArray()).toList(), false, "secret forms");
+            }
+            return a;
+        }
+
+        @Override public boolean isEmpty() {
+            return empty;
+        }
+
+        @Override public boolean find(@NonNull CharSequence text) {
+            return !empty && automaton().find(text, 0, text.length()) >= 0;
+        }
+
+        @NonNull
+        @Override public String replaceAll(@NonNull CharSequence text, @NonNull String replacement) {
+            if (empty) {
+                return text.toString();
+            }
+            LiteralAutomaton automaton = automaton();
+            int length = text.length();
+            StringBuilder sb = null;
+            int pos = 0;
+            while (pos < length) {
+                long found = automaton.find(text, pos, length);
+                if (found < 0) {
+                    break;
+                }
+                if (sb == null) {
+                    sb = new StringBuilder(length);
+                }
+                sb.append(text, pos, LiteralAutomaton.start(found)).append(replacement);
+                pos = LiteralAutomaton.end(found);
+            }
+            if (sb == null) {
+                return text.toString();
+            }
+            return sb.append(text, pos, length).toString();
+        }
+
+        @Override public void mask(@NonNull byte[] b, int off, int len, @NonNull Charset charset, @NonNull String replacement, @NonNull OutputStream out) throws IOException {
+            LiteralAutomaton bytes = encoded(charset);
+            if (bytes == null) {
+                super.mask(b, off, len, charset, replacement, out);
+                return;
+            }
+            // Match directly on the encoded bytes, copying unmatched spans straight through.
+            int end = off + len;
+            int pos = off;
+            byte[] replacementBytes = null;
+            while (pos < end) {
+                long found = bytes.find(b, pos, end);
+                if (found < 0) {
+                    break;
+                }
+                if (replacementBytes == null) {
+                    replacementBytes = replacement.getBytes(charset);
+                }
+                int start = LiteralAutomaton.start(found);
+                out.write(b, pos, start - pos);
+                out.write(replacementBytes);
+                pos = LiteralAutomaton.end(found);
+            }
+            out.write(b, pos, end - pos);
+        }
+
+        @CheckForNull
+        @Override LiteralAutomaton encoded(@NonNull Charset charset) {
+            Optional<LiteralAutomaton> o = byCharset.get(charset);
+            if (o == null) {
+                o = byCharset.computeIfAbsent(charset, this::encode);
+            }
+            return o.orElse(null);
+        }
+
+        /**
+         * Byte sequences may be matched in place of characters only if every character has a single encoding and
+         * no encoded character can be confused with part of another: UTF-8, or any single-byte charset.
+         */
+        private Optional<LiteralAutomaton> encode(Charset charset) {
+            if (!charset.canEncode()) {
+                return Optional.empty();
+            }
+            CharsetEncoder encoder = charset.newEncoder();
+            if (!charset.equals(StandardCharsets.UTF_8) && encoder.maxBytesPerChar() != 1) {
+                return Optional.empty();
+            }
+            List<int[]> literals = new ArrayList<>();
+            for (String form : forms) {
+                // A form which cannot be encoded cannot appear in the output either.
+                if (encoder.canEncode(form)) {
+                    byte[] bytes = form.getBytes(charset);
+                    int[] literal = new int[bytes.length];
+                    Arrays.setAll(literal, i -> bytes[i] & 0xFF);
+                    literals.add(literal);
+                }
+            }
+            // Console logs are masked as bytes, so only these automata are worth a transition table.
+            return Optional.of(LiteralAutomaton.compile(literals, true, "secret forms encoded in " + charset));
+        }
+
+        @NonNull
+        @Override public Pattern toPattern() {
+            Pattern p = pattern;
+            if (p == null) {
+                p = pattern = SecretPatterns.toPattern(forms);
+            }
+            return p;
+        }
+
+    }
+
+}
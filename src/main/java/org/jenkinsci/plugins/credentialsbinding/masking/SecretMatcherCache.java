@@ -0,0 +1,188 @@
+package org.jenkinsci.plugins.credentialsbinding.masking;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide cache of compiled {@link SecretMatcher}s, so that builds binding the same credentials share one matcher.
+ * Entries are keyed by a salted digest of the secrets and of the active {@link SecretPatternFactory} list,
+ * so the keys themselves reveal nothing about the secrets.
+ * The least recently used entry is evicted once {@link #SIZE} is exceeded.
+ * <p>
+ * Concurrent requests for the same matcher wait for a single compilation,
+ * and at most {@link #CONCURRENCY} matchers are compiled at once,
+ * so that for example the builds resuming after a restart do not all compile their matchers in parallel.
+ */
+@Restricted(NoExternalUse.class)
+public final class SecretMatcherCache {
+
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "for script console")
+    public static /* not final */ int SIZE = SystemProperties.getInteger(SecretMatcherCache.class.getName() + ".SIZE", 256);
+
+    /** Maximum number of matchers compiled at once; read at startup. */
+    static final int CONCURRENCY = SystemProperties.getInteger(SecretMatcherCache.class.getName() + ".CONCURRENCY", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static final Semaphore compilations = new Semaphore(CONCURRENCY);
+
+    private static final byte[] SALT = new byte[32];
+
+    static {
+        new SecureRandom().nextBytes(SALT);
+    }
+
+    private static final Map<ByteBuffer, SecretMatcher> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<ByteBuffer, SecretMatcher> eldest) {
+            if (size() > SIZE) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /** Compilations in progress, guarded by {@link #cache}. */
+    private static final Map<ByteBuffer, CompletableFuture<SecretMatcher>> compiling = new HashMap<>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    static @NonNull SecretMatcher get(@NonNull ByteBuffer key, @NonNull Supplier<SecretMatcher> compiler) {
+        CompletableFuture<SecretMatcher> pending;
+        synchronized (cache) {
+            SecretMatcher matcher = cache.get(key);
+            if (matcher != null) {
+                hits.incrementAndGet();
+                return matcher;
+            }
+            pending = compiling.get(key);
+            if (pending == null) {
+                compiling.put(key, new CompletableFuture<>());
+            }
+        }
+        if (pending != null) {
+            hits.incrementAndGet();
+            try {
+                return pending.join();
+            } catch (CompletionException x) {
+                if (x.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) x.getCause();
+                }
+                throw x;
+            }
+        }
+        misses.incrementAndGet();
+        SecretMatcher matcher;
+        try {
+            compilations.acquireUninterruptibly();
+            try {
+                matcher = compiler.get();
+            } finally {
+                compilations.release();
+            }
+        } catch (RuntimeException | Error x) {
+            synchronized (cache) {
+                compiling.remove(key).completeExceptionally(x);
+            }
+            throw x;
+        }
+        synchronized (cache) {
+            cache.put(key, matcher);
+            compiling.remove(key).complete(matcher);
+        }
+        return matcher;
+    }
+
+    /**
+     * Key for the matcher built from some raw secrets by the given factories.
+     */
+    static @NonNull ByteBuffer keyForSecrets(@NonNull Collection<String> inputs, @NonNull List<SecretPatternFactory> factories) {
+        MessageDigest digest = newDigest();
+        update(digest, "secrets");
+        for (SecretPatternFactory factory : factories) {
+            update(digest, factory.getClass().getName());
+        }
+        // Order and duplicates do not affect the result.
+        for (String input : new TreeSet<>(inputs)) {
+            update(digest, input);
+        }
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    /**
+     * Key for the matcher built from an already encoded list of forms.
+     */
+    static @NonNull ByteBuffer keyForForms(@NonNull List<String> forms) {
+        MessageDigest digest = newDigest();
+        update(digest, "forms");
+        for (String form : forms) {
+            update(digest, form);
+        }
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(SALT);
+            return digest;
+        } catch (NoSuchAlgorithmException x) {
+            throw new AssertionError(x);
+        }
+    }
+
+    private static void update(MessageDigest digest, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        // Length prefix, so that no two lists of strings digest alike.
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    public static long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /** Does not affect compilations in progress. */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private SecretMatcherCache() {}
+
+}
@@ -45,6 +45,17 @@ public interface SecretPatternFactory extends ExtensionPoint {
      */
     @NonNull Collection<String> getEncodedForms(@NonNull String input);
 
+    /**
+     * Whether the encoded forms may appear in the logs of processes on agents of a given platform.
+     * Forms of factories which do not apply are left out of the matcher when the platform is known.
+     * Only return false for forms which can never appear there:
+     * Unix shells, for example, also run on Windows agents through Cygwin, Git Bash or MSYS.
+     * @param unix true for a Unix agent, false for a Windows agent
+     */
+    default boolean isApplicable(boolean unix) {
+        return true;
+    }
+
     /**
      * Returns all SecretPatternFactory extensions known at runtime.
      */
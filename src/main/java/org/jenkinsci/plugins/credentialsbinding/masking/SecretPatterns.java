@@ -24,18 +24,25 @@
 
 package org.jenkinsci.plugins.credentialsbinding.masking;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.console.LineTransformationOutputStream;
 import jenkins.util.JenkinsJVM;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.function.Supplier;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -50,6 +57,46 @@ public class SecretPatterns {
      */
     private static final int MINIMUM_ENCODED_LENGTH = 3;
 
+    /**
+     * Number of encoded forms from which matchers are compiled into a fully deterministic automaton,
+     * trading memory for a single table lookup per byte.
+     * Only applies to the automata masking bytes in a given charset, as used for console logs.
+     */
+    @Restricted(NoExternalUse.class)
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "for script console")
+    public static /* not final */ int DFA_THRESHOLD = SystemProperties.getInteger(SecretPatterns.class.getName() + ".DFA_THRESHOLD", 200);
+
+    /**
+     * Maximum number of entries (states × distinct bytes) in the table of a deterministic automaton, 1 MiB by default.
+     * Larger sets of forms keep using failure links.
+     * Each cached matcher may hold one table per charset, so this bounds the memory held by {@link SecretMatcherCache}.
+     */
+    @Restricted(NoExternalUse.class)
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "for script console")
+    public static /* not final */ int DFA_MAX_TABLE_SIZE = SystemProperties.getInteger(SecretPatterns.class.getName() + ".DFA_MAX_TABLE_SIZE", 1 << 18);
+
+    /**
+     * Whether {@link #maskingOutputStream} should mask in bounded chunks rather than whole lines.
+     */
+    @Restricted(NoExternalUse.class)
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "for script console")
+    public static /* not final */ boolean STREAMING = SystemProperties.getBoolean(SecretPatterns.class.getName() + ".STREAMING");
+
+    /**
+     * Size in bytes of the chunks masked by {@link StreamingMaskingOutputStream}.
+     */
+    @Restricted(NoExternalUse.class)
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "for script console")
+    public static /* not final */ int STREAMING_CHUNK_SIZE = SystemProperties.getInteger(SecretPatterns.class.getName() + ".STREAMING_CHUNK_SIZE", 64 * 1024);
+
+    /**
+     * Whether to use every {@link SecretPatternFactory} even when the platform of the agent is known,
+     * for example for a block whose body runs processes on agents of another platform.
+     */
+    @Restricted(NoExternalUse.class)
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "for script console")
+    public static /* not final */ boolean ALL_PLATFORMS = SystemProperties.getBoolean(SecretPatterns.class.getName() + ".ALL_PLATFORMS");
+
     /**
      * Constructs a regular expression to match against all known forms that the given collection of input strings may
      * appear. This pattern is optimized such that longer masks are checked before shorter masks. By doing so, this
@@ -60,9 +107,67 @@ public class SecretPatterns {
      * absence of quoting, the longer form is masked.
      */
     public static @NonNull Pattern getAggregateSecretPattern(@NonNull Collection<String> inputs) {
+        return getAggregateSecretMatcher(inputs).toPattern();
+    }
+
+    /**
+     * Like {@link #getAggregateSecretPattern} but compiles the encoded forms into a multi-literal automaton rather than
+     * a regular expression alternation. The same longer-forms-first semantics apply, but scanning a line no longer
+     * involves trying every form at every offset.
+     * Matchers are shared through {@link SecretMatcherCache} between callers passing the same secrets.
+     */
+    public static @NonNull SecretMatcher getAggregateSecretMatcher(@NonNull Collection<String> inputs) {
+        return getAggregateSecretMatcher(inputs, null);
+    }
+
+    /**
+     * Like {@link #getAggregateSecretMatcher(Collection)} but leaves out forms which cannot appear on the given platform.
+     * Matchers for different platforms are cached separately, as they are built from different factories.
+     * @param unix whether the secrets are used on a Unix agent, or null if unknown, to use every {@link SecretPatternFactory}
+     * @see SecretPatternFactory#isApplicable
+     */
+    public static @NonNull SecretMatcher getAggregateSecretMatcher(@NonNull Collection<String> inputs, @CheckForNull Boolean unix) {
         JenkinsJVM.checkJenkinsJVM();
-        List<SecretPatternFactory> secretPatternFactories = SecretPatternFactory.all();
-        String pattern = inputs.stream()
+        List<SecretPatternFactory> secretPatternFactories = factories(unix);
+        return SecretMatcherCache.get(SecretMatcherCache.keyForSecrets(inputs, secretPatternFactories),
+                () -> compile(inputs, secretPatternFactories));
+    }
+
+    static @NonNull List<SecretPatternFactory> factories(@CheckForNull Boolean unix) {
+        List<SecretPatternFactory> all = SecretPatternFactory.all();
+        if (unix == null || ALL_PLATFORMS) {
+            return all;
+        }
+        return all.stream().filter(factory -> factory.isApplicable(unix)).collect(Collectors.toList());
+    }
+
+    /**
+     * Builds a matcher without consulting the cache or the extension list, for example from benchmarks.
+     */
+    static @NonNull SecretMatcher compile(@NonNull Collection<String> inputs, @NonNull List<SecretPatternFactory> secretPatternFactories) {
+        return SecretMatcher.literal(getEncodedForms(inputs, secretPatternFactories));
+    }
+
+    /**
+     * Recovers a matcher from the text of a pattern previously returned by {@link #getAggregateSecretPattern},
+     * for example as persisted by an older version of this plugin.
+     * Anything else is just compiled as a regular expression.
+     * Only cached on the controller: on an agent, the forms would outlive the build in the heap of a process shared with later builds.
+     */
+    @Restricted(NoExternalUse.class)
+    public static @NonNull SecretMatcher parseAggregateSecretPattern(@NonNull String pattern) {
+        List<String> forms = unquote(pattern);
+        if (forms == null) {
+            return SecretMatcher.of(Pattern.compile(pattern));
+        }
+        if (!JenkinsJVM.isJenkinsJVM()) {
+            return SecretMatcher.literal(forms);
+        }
+        return SecretMatcherCache.get(SecretMatcherCache.keyForForms(forms), () -> SecretMatcher.literal(forms));
+    }
+
+    static @NonNull List<String> getEncodedForms(@NonNull Collection<String> inputs, @NonNull List<SecretPatternFactory> secretPatternFactories) {
+        return inputs.stream()
                 .filter(input -> !input.isEmpty())
                 .flatMap(input ->
                         secretPatternFactories.stream().flatMap(factory ->
@@ -70,9 +175,62 @@ public class SecretPatterns {
                 .filter(encoded -> encoded.length() >= MINIMUM_ENCODED_LENGTH)
                 .sorted(BY_LENGTH_DESCENDING)
                 .distinct()
-                .map(Pattern::quote)
-                .collect(Collectors.joining("|"));
-        return Pattern.compile(pattern);
+                .collect(Collectors.toList());
+    }
+
+    static @NonNull Pattern toPattern(@NonNull List<String> forms) {
+        return Pattern.compile(forms.stream().map(Pattern::quote).collect(Collectors.joining("|")));
+    }
+
+    /**
+     * Inverse of {@link #toPattern}, relying on the exact output of {@link Pattern#quote}.
+     * @return the literal forms, or null if the text is not in that format
+     */
+    private static @CheckForNull List<String> unquote(@NonNull String pattern) {
+        List<String> forms = new ArrayList<>();
+        if (pattern.isEmpty()) {
+            return forms;
+        }
+        StringBuilder form = new StringBuilder();
+        int pos = 0;
+        while (true) {
+            if (!pattern.startsWith("\\Q", pos)) {
+                return null;
+            }
+            int end = pattern.indexOf("\\E", pos + 2);
+            if (end < 0) {
+                return null;
+            }
+            form.append(pattern, pos + 2, end);
+            pos = end + 2;
+            if (pattern.startsWith("\\\\E", pos)) {
+                // Pattern.quote renders a literal \E as \E\\E\Q.
+                form.append("\\E");
+                pos += 3;
+                continue;
+            }
+            forms.add(form.toString());
+            form.setLength(0);
+            if (pos == pattern.length()) {
+                return forms;
+            }
+            if (pattern.charAt(pos) != '|') {
+                return null;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Creates a stream masking the given secrets, either a {@link MaskingOutputStream}
+     * or, if {@link #STREAMING} is set, a {@link StreamingMaskingOutputStream}.
+     */
+    @Restricted(NoExternalUse.class)
+    public static @NonNull OutputStream maskingOutputStream(@NonNull OutputStream out, @NonNull Supplier<? extends SecretMatcher> secretMatcher, @NonNull Charset charset) {
+        if (STREAMING) {
+            return new StreamingMaskingOutputStream(out, secretMatcher, charset, STREAMING_CHUNK_SIZE);
+        }
+        return new MaskingOutputStream(out, secretMatcher, charset);
     }
 
     /**
@@ -80,9 +238,9 @@ public class SecretPatterns {
      */
     public static class MaskingOutputStream extends LineTransformationOutputStream.Delegating {
 
-        private final @NonNull Supplier<Pattern> secretPattern;
-        private final @NonNull String charsetName;
-        private @Nullable Pattern p; // null until set
+        private final @NonNull Supplier<? extends SecretMatcher> secretMatcher;
+        private final @NonNull Charset charset;
+        private @Nullable SecretMatcher m; // null until set
 
         /**
          * @param out the base output stream which will not be sent secrets
@@ -90,26 +248,32 @@ public class SecretPatterns {
          * @param charsetName the character set to detect strings
          */
         public MaskingOutputStream(@NonNull OutputStream out, @NonNull Supplier<Pattern> secretPattern, @NonNull String charsetName) {
+            this(out, () -> {
+                Pattern p = secretPattern.get();
+                return p != null ? SecretMatcher.of(p) : null;
+            }, Charset.forName(charsetName));
+        }
+
+        /**
+         * @param out the base output stream which will not be sent secrets
+         * @param secretMatcher a lazy computation of either the result of {@link #getAggregateSecretMatcher}, or null to just skip masking
+         * @param charset the character set to detect strings
+         */
+        public MaskingOutputStream(@NonNull OutputStream out, @NonNull Supplier<? extends SecretMatcher> secretMatcher, @NonNull Charset charset) {
             super(out);
-            this.secretPattern = secretPattern;
-            this.charsetName = charsetName;
+            this.secretMatcher = secretMatcher;
+            this.charset = charset;
         }
 
         @Override protected void eol(byte[] b, int len) throws IOException {
-            if (p == null) {
-                p = secretPattern.get();
+            if (m == null) {
+                m = secretMatcher.get();
             }
-            if (p == null || p.toString().isEmpty()) {
+            if (m == null || m.isEmpty()) {
                 // Avoid byte → char → byte conversion unless we are actually doing something.
                 out.write(b, 0, len);
             } else {
-                Matcher m = p.matcher(new String(b, 0, len, charsetName));
-                if (m.find()) {
-                    out.write(m.replaceAll("****").getBytes(charsetName));
-                } else {
-                    // As above.
-                    out.write(b, 0, len);
-                }
+                m.mask(b, 0, len, charset, "****", out);
             }
         }
 
@@ -119,6 +283,155 @@ public class SecretPatterns {
 
     }
 
+    /**
+     * Masks output in fixed-size chunks rather than whole lines, so that memory use stays bounded for output which
+     * contains few or no newlines. A window as long as the longest encoded form is carried over between chunks so that
+     * secrets spanning a chunk boundary are still masked. Output is still flushed downstream at each newline.
+     * Where secrets cannot be matched on bytes in the given charset, this behaves like {@link MaskingOutputStream}.
+     */
+    public static class StreamingMaskingOutputStream extends FilterOutputStream {
+
+        private final @NonNull Supplier<? extends SecretMatcher> secretMatcher;
+        private final @NonNull Charset charset;
+        private final int chunkSize;
+        private boolean initialized;
+        /** Used when matching on bytes is not possible. */
+        private @Nullable MaskingOutputStream lines;
+        private @Nullable SecretMatcher m;
+        private @Nullable LiteralAutomaton automaton;
+        private byte[] buf;
+        private int count;
+        private byte[] replacement;
+        private final byte[] single = new byte[1];
+
+        /**
+         * @param out the base output stream which will not be sent secrets
+         * @param secretMatcher a lazy computation of either the result of {@link #getAggregateSecretMatcher}, or null to just skip masking
+         * @param charset the character set to detect strings
+         * @param chunkSize the number of bytes to accumulate before masking if no newline is seen
+         */
+        public StreamingMaskingOutputStream(@NonNull OutputStream out, @NonNull Supplier<? extends SecretMatcher> secretMatcher, @NonNull Charset charset, int chunkSize) {
+            super(out);
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+            }
+            this.secretMatcher = secretMatcher;
+            this.charset = charset;
+            this.chunkSize = chunkSize;
+        }
+
+        private void init() {
+            if (initialized) {
+                return;
+            }
+            m = secretMatcher.get();
+            if (m == null) {
+                // Secrets may not be known yet, as with a build log decorated before bindings are set up; ask again on the next write.
+                return;
+            }
+            initialized = true;
+            if (m.isEmpty()) {
+                return;
+            }
+            automaton = m.encoded(charset);
+            if (automaton == null) {
+                SecretMatcher _m = m;
+                lines = new MaskingOutputStream(out, () -> _m, charset);
+            } else {
+                buf = new byte[chunkSize + automaton.maxLength()];
+                replacement = "****".getBytes(charset);
+            }
+        }
+
+        @Override public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            init();
+            if (lines != null) {
+                lines.write(b, off, len);
+                return;
+            }
+            if (automaton == null) {
+                out.write(b, off, len);
+                return;
+            }
+            while (len > 0) {
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                int newline = -1;
+                for (int i = count + n - 1; i >= count; i--) {
+                    if (buf[i] == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                count += n;
+                off += n;
+                len -= n;
+                if (newline >= 0) {
+                    // Complete lines are masked in full, as MaskingOutputStream would.
+                    drain(newline + 1, newline + 1);
+                }
+                if (count >= chunkSize) {
+                    // Anything starting this close to the end could be the beginning of a longer match.
+                    drain(count - automaton.maxLength() + 1, count);
+                }
+            }
+        }
+
+        /**
+         * Masks and writes out {@code buf[0, limit)}, or further if a match starting before {@code limit} extends past it,
+         * so long as that match lies within {@code buf[0, end)}. The remainder is moved to the start of the buffer.
+         */
+        private void drain(int limit, int end) throws IOException {
+            int pos = 0;
+            while (pos < limit) {
+                long found = automaton.find(buf, pos, end);
+                if (found < 0 || LiteralAutomaton.start(found) >= limit) {
+                    break;
+                }
+                int start = LiteralAutomaton.start(found);
+                out.write(buf, pos, start - pos);
+                out.write(replacement);
+                pos = LiteralAutomaton.end(found);
+            }
+            if (pos < limit) {
+                out.write(buf, pos, limit - pos);
+                pos = limit;
+            }
+            System.arraycopy(buf, pos, buf, 0, count - pos);
+            count -= pos;
+        }
+
+        @Override public void flush() throws IOException {
+            // Anything still buffered could be the start of a secret, so leave it until more output arrives.
+            if (lines != null) {
+                lines.flush();
+            } else {
+                out.flush();
+            }
+        }
+
+        @Override public void close() throws IOException {
+            if (lines != null) {
+                lines.close();
+                return;
+            }
+            if (count > 0) {
+                drain(count, count);
+            }
+            out.close();
+        }
+
+        @Override public String toString() {
+            return "StreamingMaskingOutputStream[" + out + "]";
+        }
+
+    }
+
     private SecretPatterns() {}
 
 }
@@ -32,14 +32,22 @@ import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredenti
 import com.cloudbees.plugins.credentials.domains.Domain;
 import com.cloudbees.plugins.credentials.impl.BaseStandardCredentials;
 import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
 import hudson.ExtensionList;
 import hudson.FilePath;
 import hudson.Functions;
+import hudson.Launcher;
+import hudson.XmlFile;
+import hudson.console.ConsoleLogFilter;
 import hudson.model.Fingerprint;
 import hudson.model.Queue;
 import hudson.model.Result;
 import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
 import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
 import hudson.security.FullControlOnceLoggedInAuthorizationStrategy;
 import hudson.slaves.WorkspaceList;
 import hudson.util.Secret;
@@ -50,10 +58,16 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import jenkins.security.QueueItemAuthenticator;
 import jenkins.security.QueueItemAuthenticatorConfiguration;
@@ -66,6 +80,10 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import org.jenkinsci.Symbol;
+import org.jenkinsci.plugins.credentialsbinding.BindingDescriptor;
+import org.jenkinsci.plugins.credentialsbinding.MultiBinding;
+import org.jenkinsci.plugins.credentialsbinding.masking.SecretMatcherCache;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
 import org.jenkinsci.plugins.plaincredentials.impl.FileCredentialsImpl;
 import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
@@ -79,6 +97,7 @@ import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
 import org.jenkinsci.plugins.workflow.graphanalysis.NodeStepTypePredicate;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.steps.EnvironmentExpander;
 import org.jenkinsci.plugins.workflow.steps.Step;
 import org.jenkinsci.plugins.workflow.steps.StepConfigTester;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
@@ -88,6 +107,8 @@ import org.jenkinsci.plugins.workflow.steps.SynchronousStepExecution;
 import org.jenkinsci.plugins.workflow.test.steps.SemaphoreStep;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
@@ -198,6 +219,138 @@ class BindingStepTest {
         });
     }
 
+    @Test
+    void concurrentBindings() throws Throwable {
+        extension.then(r -> {
+            int concurrency = BindingStep.CONCURRENCY;
+            BindingStep.CONCURRENCY = 4;
+            try {
+                for (int i = 0; i < 10; i++) {
+                    CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), new FileCredentialsImpl(CredentialsScope.GLOBAL, "file" + i, "sample", "secret" + i + ".txt", SecretBytes.fromBytes(("s3cr3t" + i).getBytes(StandardCharsets.UTF_8))));
+                }
+                WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+                p.setDefinition(new CpsFlowDefinition("""
+                        node {
+                          withCredentials([file(credentialsId: 'file0', variable: 'SAME'), file(credentialsId: 'file1', variable: 'SAME'),
+                                           file(credentialsId: 'file2', variable: 'F2'), file(credentialsId: 'file3', variable: 'F3'), file(credentialsId: 'file4', variable: 'F4'),
+                                           file(credentialsId: 'file5', variable: 'F5'), file(credentialsId: 'file6', variable: 'F6'), file(credentialsId: 'file7', variable: 'F7'),
+                                           file(credentialsId: 'file8', variable: 'F8'), file(credentialsId: 'file9', variable: 'F9')]) {
+                            echo "last wins: ${readFile(SAME) == 's3cr3t1'}"
+                            echo "all bound: ${(2..9).every { readFile(env."F$it") == "s3cr3t$it" }}"
+                          }
+                          withCredentials([file(credentialsId: 'file0', variable: 'F0'), file(credentialsId: 'file1', variable: 'F1'), string(credentialsId: 'missing', variable: 'MISSING')]) {
+                            error 'should not get here'
+                          }
+                        }
+                        """, false));
+                WorkflowRun b = r.buildAndAssertStatus(Result.FAILURE, p);
+                r.assertLogContains("last wins: true", b);
+                r.assertLogContains("all bound: true", b);
+                r.assertLogContains("Could not find credentials entry with ID 'missing'", b);
+                r.assertLogNotContains("should not get here", b);
+                // The bindings which succeeded before the failure were unbound again.
+                FilePath secretFiles = WorkspaceList.tempDir(r.jenkins.getWorkspaceFor(p)).child("secretFiles");
+                assertEquals(Collections.emptyList(), secretFiles.list());
+            } finally {
+                BindingStep.CONCURRENCY = concurrency;
+            }
+        });
+    }
+
+    @Test
+    void staleSecretFilesSwept() throws Throwable {
+        extension.then(r -> {
+            CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), new FileCredentialsImpl(CredentialsScope.GLOBAL, "creds", "sample", "secret.txt", SecretBytes.fromBytes("s3cr3t".getBytes(StandardCharsets.UTF_8))));
+            WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+            p.setDefinition(new CpsFlowDefinition("node {withCredentials([file(credentialsId: 'creds', variable: 'A'), file(credentialsId: 'creds', variable: 'B')]) {echo readFile(A) + readFile(B)}}", true));
+            FilePath secretFiles = WorkspaceList.tempDir(r.jenkins.getWorkspaceFor(p)).child("secretFiles");
+            FilePath stale = secretFiles.child("stale");
+            stale.child("file").write("old", null);
+            stale.touch(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2));
+            FilePath recent = secretFiles.child("recent");
+            recent.mkdirs();
+            r.buildAndAssertSuccess(p);
+            while (stale.exists()) {
+                Thread.sleep(100);
+            }
+            // Kept although no unbinder knows it, as it is not yet old enough.
+            assertEquals(Collections.singletonList(recent), secretFiles.list());
+        });
+    }
+
+    @Test
+    void abortWhileBinding() throws Throwable {
+        extension.then(r -> {
+            int concurrency = BindingStep.CONCURRENCY;
+            BindingStep.CONCURRENCY = 4;
+            try {
+                CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "creds", "sample", Secret.fromString("s3cr3t")));
+                WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+                p.setDefinition(new CpsFlowDefinition("withCredentials([slow(credentialsId: 'creds'), slow(credentialsId: 'creds')]) {echo 'should not get here'}", true));
+                SlowBinding.started = new CountDownLatch(2);
+                SlowBinding.interrupted = new CountDownLatch(2);
+                WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+                SlowBinding.started.await();
+                b.doStop();
+                // Both the step thread and the pool thread binding concurrently were interrupted.
+                assertTrue(SlowBinding.interrupted.await(1, TimeUnit.MINUTES));
+                r.assertBuildStatus(Result.ABORTED, r.waitForCompletion(b));
+                r.assertLogNotContains("should not get here", b);
+            } finally {
+                BindingStep.CONCURRENCY = concurrency;
+            }
+        });
+    }
+
+    public static class SlowBinding extends MultiBinding<StringCredentials> {
+
+        static CountDownLatch started;
+        static CountDownLatch interrupted;
+
+        @DataBoundConstructor
+        public SlowBinding(String credentialsId) {
+            super(credentialsId);
+        }
+
+        @Override
+        protected Class<StringCredentials> type() {
+            return StringCredentials.class;
+        }
+
+        @Override
+        public MultiEnvironment bind(@NonNull Run<?, ?> build, FilePath workspace, Launcher launcher, @NonNull TaskListener listener) throws IOException, InterruptedException {
+            started.countDown();
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException x) {
+                interrupted.countDown();
+                throw x;
+            }
+            throw new AssertionError();
+        }
+
+        @Override
+        public Set<String> variables(@NonNull Run<?, ?> build) {
+            return Collections.emptySet();
+        }
+
+        @Symbol("slow")
+        @TestExtension("abortWhileBinding")
+        public static class DescriptorImpl extends BindingDescriptor<StringCredentials> {
+
+            @Override
+            protected Class<StringCredentials> type() {
+                return StringCredentials.class;
+            }
+
+            @NonNull
+            @Override
+            public String getDisplayName() {
+                return "Slow";
+            }
+        }
+    }
+
     @Issue("JENKINS-42999")
     @Test
     void limitedRequiredContext() throws Throwable {
@@ -312,6 +465,39 @@ class BindingStepTest {
         });
     }
 
+    @Test
+    void resumeManyBuilds() throws Throwable {
+        final int builds = 20;
+        extension.then(r -> {
+            CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "creds", "sample", Secret.fromString("s3cr3t")));
+            WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+            p.setDefinition(new CpsFlowDefinition("""
+                    withCredentials([string(credentialsId: 'creds', variable: 'SECRET')]) {
+                        semaphore 'resume'
+                        echo "resumed with $SECRET"
+                    }
+                    """, true));
+            for (int i = 1; i <= builds; i++) {
+                SemaphoreStep.waitForStart("resume/" + i, p.scheduleBuild2(0).waitForStart());
+            }
+        });
+        extension.then(r -> {
+            // The cache outlives the restart in this JVM, unlike in a real controller.
+            SecretMatcherCache.clear();
+            long misses = SecretMatcherCache.getMissCount();
+            WorkflowJob p = r.jenkins.getItemByFullName("p", WorkflowJob.class);
+            for (int i = 1; i <= builds; i++) {
+                SemaphoreStep.success("resume/" + i, null);
+            }
+            for (int i = 1; i <= builds; i++) {
+                WorkflowRun b = r.assertBuildStatusSuccess(r.waitForCompletion(p.getBuildByNumber(i)));
+                r.assertLogContains("resumed with ****", b);
+            }
+            // Every build masks the same secret, so they share a single compiled matcher.
+            assertEquals(misses + 1, SecretMatcherCache.getMissCount());
+        });
+    }
+
     @Issue("JENKINS-27389")
     @Test
     void grabEnv() throws Throwable {
@@ -356,6 +542,211 @@ class BindingStepTest {
         });
     }
 
+    @Test
+    void maskingInNestedBlocks() throws Throwable {
+        extension.then(r -> {
+            CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "outer", "sample", Secret.fromString("s3cr3t")));
+            CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "inner", "sample", Secret.fromString("t0k3n")));
+            WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+            p.setDefinition(new CpsFlowDefinition(
+                    """
+                            withCredentials([string(credentialsId: 'outer', variable: 'OUTER')]) {
+                                withCredentials([string(credentialsId: 'inner', variable: 'INNER')]) {
+                                    echo "inner: $OUTER $INNER"
+                                    consoleLogFilter()
+                                }
+                                echo "outer: $OUTER"
+                            }
+                            """, true));
+            WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+            r.assertLogNotContains("s3cr3t", b);
+            r.assertLogNotContains("t0k3n", b);
+            r.assertLogContains("inner: **** ****", b);
+            r.assertLogContains("outer: ****", b);
+            // The inner block masks both secrets in one pass, rather than wrapping the outer block's filter.
+            r.assertLogContains("console log filter: " + BindingStep.class.getName() + "$Filter", b);
+        });
+    }
+
+    public static class ConsoleLogFilterStep extends Step {
+
+        @DataBoundConstructor
+        public ConsoleLogFilterStep() {}
+
+        @Override
+        public StepExecution start(StepContext context) throws Exception {
+            return new Execution(context);
+        }
+
+        @TestExtension("maskingInNestedBlocks")
+        public static class DescriptorImpl extends StepDescriptor {
+
+            @Override
+            public String getFunctionName() {
+                return "consoleLogFilter";
+            }
+
+            @Override
+            public Set<? extends Class<?>> getRequiredContext() {
+                return Set.of(TaskListener.class);
+            }
+        }
+
+        static class Execution extends SynchronousStepExecution<Void> {
+            Execution(StepContext context) {
+                super(context);
+            }
+
+            @Override
+            protected Void run() throws Exception {
+                ConsoleLogFilter filter = getContext().get(ConsoleLogFilter.class);
+                getContext().get(TaskListener.class).getLogger().println("console log filter: " + (filter == null ? null : filter.getClass().getName()));
+                return null;
+            }
+        }
+    }
+
+    @Test
+    void environmentInNestedBlocks() throws Throwable {
+        extension.then(r -> {
+            for (String id : new String[] {"a", "b", "c"}) {
+                CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, id, "sample", Secret.fromString(id + "-s3cr3t")));
+            }
+            WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+            p.setDefinition(new CpsFlowDefinition(
+                    """
+                            withCredentials([string(credentialsId: 'a', variable: 'X')]) {
+                                withCredentials([string(credentialsId: 'b', variable: 'X'), string(credentialsId: 'c', variable: 'Y')]) {
+                                    withCredentials([string(credentialsId: 'a', variable: 'Z')]) {
+                                        echo "innermost: ${env.X == 'b-s3cr3t'} ${env.Y == 'c-s3cr3t'} ${env.Z == 'a-s3cr3t'}"
+                                        environmentExpander()
+                                    }
+                                    withEnv(['W=w']) {
+                                        withCredentials([string(credentialsId: 'c', variable: 'X')]) {
+                                            echo "after withEnv: ${env.X == 'c-s3cr3t'} $W"
+                                        }
+                                    }
+                                }
+                                echo "outer: ${env.X == 'a-s3cr3t'} ${env.Y == null}"
+                            }
+                            """, true));
+            WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+            r.assertLogContains("innermost: true true true", b);
+            r.assertLogContains("after withEnv: true w", b);
+            r.assertLogContains("outer: true true", b);
+            // Nested blocks share a single expander, rather than a chain as long as the nesting.
+            r.assertLogContains("environment expander: " + BindingStep.class.getName() + "$Overrider", b);
+        });
+    }
+
+    public static class EnvironmentExpanderStep extends Step {
+
+        @DataBoundConstructor
+        public EnvironmentExpanderStep() {}
+
+        @Override
+        public StepExecution start(StepContext context) throws Exception {
+            return new Execution(context);
+        }
+
+        @TestExtension("environmentInNestedBlocks")
+        public static class DescriptorImpl extends StepDescriptor {
+
+            @Override
+            public String getFunctionName() {
+                return "environmentExpander";
+            }
+
+            @Override
+            public Set<? extends Class<?>> getRequiredContext() {
+                return Set.of(TaskListener.class);
+            }
+        }
+
+        static class Execution extends SynchronousStepExecution<Void> {
+            Execution(StepContext context) {
+                super(context);
+            }
+
+            @Override
+            protected Void run() throws Exception {
+                EnvironmentExpander expander = getContext().get(EnvironmentExpander.class);
+                getContext().get(TaskListener.class).getLogger().println("environment expander: " + (expander == null ? null : expander.getClass().getName()));
+                return null;
+            }
+        }
+    }
+
+    @Test
+    void plainTextsCachedWithinBlock() throws Throwable {
+        extension.then(r -> {
+            CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "creds", "sample", Secret.fromString("s3cr3t")));
+            WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+            p.setDefinition(new CpsFlowDefinition(
+                    """
+                            withCredentials([string(credentialsId: 'creds', variable: 'X')]) {
+                                plainTexts()
+                                echo "matches: ${env.X == 's3cr3t'}"
+                                plainTexts()
+                            }
+                            """, true));
+            PlainTextsStep.expanders.clear();
+            PlainTextsStep.seen.clear();
+            WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+            r.assertLogContains("matches: true", b);
+            assertEquals(2, PlainTextsStep.seen.size());
+            assertEquals(Map.of("X", "s3cr3t"), PlainTextsStep.seen.get(0));
+            // Decrypted once for the block, not once per step.
+            assertSame(PlainTextsStep.seen.get(0), PlainTextsStep.seen.get(1));
+            assertSame(PlainTextsStep.expanders.get(0), PlainTextsStep.expanders.get(1));
+            assertNull(BindingStep.plainTexts(PlainTextsStep.expanders.get(0)), "forgotten once the block is over");
+        });
+    }
+
+    public static class PlainTextsStep extends Step {
+
+        static final List<EnvironmentExpander> expanders = new ArrayList<>();
+        static final List<Map<String, String>> seen = new ArrayList<>();
+
+        @DataBoundConstructor
+        public PlainTextsStep() {}
+
+        @Override
+        public StepExecution start(StepContext context) throws Exception {
+            return new Execution(context);
+        }
+
+        @TestExtension("plainTextsCachedWithinBlock")
+        public static class DescriptorImpl extends StepDescriptor {
+
+            @Override
+            public String getFunctionName() {
+                return "plainTexts";
+            }
+
+            @Override
+            public Set<? extends Class<?>> getRequiredContext() {
+                return Set.of(EnvVars.class);
+            }
+        }
+
+        static class Execution extends SynchronousStepExecution<Void> {
+            Execution(StepContext context) {
+                super(context);
+            }
+
+            @Override
+            protected Void run() throws Exception {
+                // Asking for the environment expands it.
+                getContext().get(EnvVars.class);
+                EnvironmentExpander expander = getContext().get(EnvironmentExpander.class);
+                expanders.add(expander);
+                seen.add(BindingStep.plainTexts(expander));
+                return null;
+            }
+        }
+    }
+
     @Issue("JENKINS-72412")
     @Test
     void maskingOfOneCharSecretShouldNotMangleOutput() throws Throwable {
@@ -455,6 +846,51 @@ class BindingStepTest {
         });
     }
 
+    @Test
+    void trackingOncePerBuild() throws Throwable {
+        extension.then(r -> {
+            CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "creds", "sample", Secret.fromString("s3cr3t")));
+            WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+            p.setDefinition(new CpsFlowDefinition("for (int i = 0; i < 10; i++) {withCredentials([string(credentialsId: 'creds', variable: 'x')]) {}}", true));
+            AtomicInteger saves = ExtensionList.lookupSingleton(FingerprintSaves.class).saves;
+            r.buildAndAssertSuccess(p);
+            assertEquals(1, saves.get());
+        });
+    }
+
+    @TestExtension("trackingOncePerBuild")
+    public static class FingerprintSaves extends SaveableListener {
+
+        final AtomicInteger saves = new AtomicInteger();
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Fingerprint) {
+                saves.incrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    void trackingWhileRunning() throws Throwable {
+        extension.then(r -> {
+            StringCredentialsImpl credentials = new StringCredentialsImpl(CredentialsScope.GLOBAL, "creds", "sample", Secret.fromString("s3cr3t"));
+            CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), credentials);
+            WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+            p.setDefinition(new CpsFlowDefinition("withCredentials([string(credentialsId: 'creds', variable: 'x')]) {semaphore 'trackingWhileRunning'}", true));
+            WorkflowRun b = p.scheduleBuild2(0).waitForStart();
+            SemaphoreStep.waitForStart("trackingWhileRunning/1", b);
+            // Written by the background flush rather than when the build completes.
+            while (CredentialsProvider.getFingerprintOf(credentials) == null) {
+                Thread.sleep(100);
+            }
+            assertTrue(b.isBuilding());
+            assertThat(CredentialsProvider.getFingerprintOf(credentials).getJobs(), hasItem(is(p.getFullName())));
+            SemaphoreStep.success("trackingWhileRunning/1", null);
+            r.assertBuildStatusSuccess(r.waitForCompletion(b));
+        });
+    }
+
     @Issue("JENKINS-64631")
     @Test
     void usernameUnmaskedInStepArguments() throws Throwable {
@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.credentialsbinding.impl;
+
+import hudson.model.Slave;
+import hudson.util.Secret;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import jenkins.security.MasterToSlaveCallable;
+import org.jenkinsci.plugins.credentialsbinding.masking.SecretMatcher;
+import org.jenkinsci.plugins.credentialsbinding.masking.SecretMatcherCache;
+import org.jenkinsci.plugins.credentialsbinding.masking.SecretPatterns;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+@WithJenkins
+class BoundSecretsTest {
+
+    private JenkinsRule r;
+
+    @BeforeEach
+    void beforeEach(JenkinsRule rule) {
+        r = rule;
+    }
+
+    @Test
+    void serializedOnce() throws Exception {
+        List<String> secrets = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            secrets.add("s3cr3t-" + i + "-p4$$w0rd");
+        }
+        BoundSecrets bound = new BoundSecrets(secrets, null);
+        BoundSecrets copy = (BoundSecrets) deserialize(serialize(bound));
+        assertEquals("[****] [****]", copy.getMatcher().replaceAll("[" + secrets.get(7) + "] [" + secrets.get(42) + "]", "****"));
+        // Previously both the filter and the failure handler saved the aggregate pattern.
+        String pattern = SecretPatterns.getAggregateSecretPattern(secrets).pattern();
+        int before = serialize(new Secret[] {Secret.fromString(pattern), Secret.fromString(pattern)}).length;
+        int after = serialize(bound).length;
+        assertThat(after * 4, lessThan(before));
+    }
+
+    @Test
+    void compiledOnFirstUse() {
+        SecretMatcherCache.clear();
+        long misses = SecretMatcherCache.getMissCount();
+        BoundSecrets bound = new BoundSecrets(List.of("s3cr3t"), null);
+        assertEquals(misses, SecretMatcherCache.getMissCount());
+        SecretMatcher matcher = bound.getMatcher();
+        assertEquals(misses + 1, SecretMatcherCache.getMissCount());
+        // The console filter and the failure handler of a block share the one matcher.
+        assertSame(matcher, bound.getMatcher());
+    }
+
+    @Test
+    void formsSentToAgents() throws Exception {
+        Slave agent = r.createOnlineSlave();
+        BoundSecrets bound = new BoundSecrets(List.of("s3cr3t"), null);
+        // Agents cannot compute encoded forms themselves.
+        assertEquals("echo ****; echo ****", agent.getChannel().call(new Mask(bound, "echo s3cr3t; echo czNjcjN0")));
+        // Nor should they keep the forms once the build is over.
+        assertEquals(0, agent.getChannel().call(new CacheSize()));
+    }
+
+    private static final class CacheSize extends MasterToSlaveCallable<Integer, RuntimeException> {
+
+        @Override public Integer call() {
+            return SecretMatcherCache.size();
+        }
+
+    }
+
+    private static final class Mask extends MasterToSlaveCallable<String, RuntimeException> {
+
+        private final BoundSecrets secrets;
+        private final String text;
+
+        Mask(BoundSecrets secrets, String text) {
+            this.secrets = secrets;
+            this.text = text;
+        }
+
+        @Override public String call() {
+            return secrets.getMatcher().replaceAll(text, "****");
+        }
+
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(object);
+        }
+        return baos.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return ois.readObject();
+        }
+    }
+
+}
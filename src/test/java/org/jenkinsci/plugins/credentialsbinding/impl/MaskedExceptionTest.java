@@ -0,0 +1,71 @@
+package org.jenkinsci.plugins.credentialsbinding.impl;
+
+import org.jenkinsci.plugins.credentialsbinding.masking.SecretMatcher;
+import org.junit.jupiter.api.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MaskedExceptionTest {
+
+    private static final SecretMatcher MATCHER = SecretMatcher.of(Pattern.compile(Pattern.quote("s3cr3t")));
+
+    @Test
+    void unchangedWithoutSecrets() {
+        Exception x = new IllegalStateException("harmless", new RuntimeException("also harmless"));
+        x.addSuppressed(new Exception("fine"));
+        assertSame(x, MaskedException.of(x, MATCHER));
+    }
+
+    @Test
+    void masksPathToSecret() {
+        Exception root = new Exception("root cause with s3cr3t");
+        Exception harmless = new Exception("harmless");
+        Exception middle = new RuntimeException("middle", root);
+        Exception top = new IllegalStateException("top", middle);
+        top.addSuppressed(harmless);
+        Throwable masked = MaskedException.of(top, MATCHER);
+        assertEquals("top", masked.getMessage());
+        assertTrue(masked instanceof MaskedException);
+        assertSame(harmless, masked.getSuppressed()[0]);
+        assertEquals("middle", masked.getCause().getMessage());
+        assertEquals("root cause with ****", masked.getCause().getCause().getMessage());
+        assertEquals(top.getStackTrace().length, masked.getStackTrace().length);
+    }
+
+    @Test
+    void deepChain() {
+        Throwable t = new Exception("s3cr3t");
+        for (int i = 0; i < 2_000; i++) {
+            t = new Exception("level " + i, t);
+        }
+        long start = System.nanoTime();
+        Throwable masked = MaskedException.of(t, MATCHER);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        // Rendering every subtree again took minutes.
+        assertTrue(millis < 10_000, () -> "took " + millis + "ms");
+        int depth = 0;
+        while (masked.getCause() != null) {
+            assertTrue(masked instanceof MaskedException);
+            masked = masked.getCause();
+            depth++;
+        }
+        assertEquals(2_000, depth);
+        assertEquals("****", masked.getMessage());
+    }
+
+    @Test
+    void cycle() {
+        Exception a = new Exception("a s3cr3t");
+        Exception b = new Exception("b", a);
+        a.initCause(b);
+        Throwable masked = MaskedException.of(a, MATCHER);
+        assertEquals("a ****", masked.getMessage());
+        assertEquals("b", masked.getCause().getMessage());
+        assertEquals("cycle", masked.getCause().getCause().getMessage());
+    }
+
+}
@@ -26,20 +26,29 @@ package org.jenkinsci.plugins.credentialsbinding.impl;
 
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SecretBytes;
 import com.cloudbees.plugins.credentials.domains.Domain;
 import hudson.Functions;
 import hudson.Launcher;
 import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.model.Item;
+import hudson.slaves.WorkspaceList;
 import hudson.tasks.BatchFile;
+import hudson.tasks.BuildWrapper;
+import hudson.tasks.BuildWrapperDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Publisher;
 import hudson.tasks.Recorder;
 import hudson.tasks.Shell;
 import hudson.util.Secret;
+import org.jenkinsci.plugins.credentialsbinding.MultiBinding;
+import org.jenkinsci.plugins.credentialsbinding.masking.SecretPatterns;
+import org.jenkinsci.plugins.credentialsbinding.test.Executables;
+import org.jenkinsci.plugins.plaincredentials.impl.FileCredentialsImpl;
 import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -47,14 +56,22 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
 
 import org.jvnet.hudson.test.junit.jupiter.BuildWatcherExtension;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
 @WithJenkins
 class SecretBuildWrapperTest {
 
@@ -151,6 +168,155 @@ class SecretBuildWrapperTest {
         r.assertLogContains("****", b);
     }
 
+    @Test
+    void patternForBuildComputedOnce() throws Exception {
+        String credentialsId = "creds_1";
+        String password = "p4$$";
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, credentialsId, "sample1", Secret.fromString(password)));
+        FreeStyleProject f = r.createFreeStyleProject();
+        f.getBuildWrappersList().add(new SecretBuildWrapper(Collections.singletonList(new StringBinding("PASS_1", credentialsId))));
+        f.getPublishersList().add(new PatternPublisher());
+        FreeStyleBuild b = r.buildAndAssertSuccess(f);
+        r.assertLogContains("same pattern: true", b);
+        r.assertLogContains("matches: true", b);
+    }
+
+    @Test
+    void credentialsLookedUpOncePerBuild() throws Exception {
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "creds", "sample", Secret.fromString("s3cr3t")));
+        FreeStyleProject f = r.createFreeStyleProject();
+        f.getBuildWrappersList().add(new SecretBuildWrapper(Arrays.asList(new StringBinding("ONE", "creds"), new StringBinding("TWO", "creds"))));
+        long hits = CredentialsCache.getHitCount();
+        long misses = CredentialsCache.getMissCount();
+        r.buildAndAssertSuccess(f);
+        assertEquals(misses + 1, CredentialsCache.getMissCount());
+        assertEquals(hits + 1, CredentialsCache.getHitCount());
+        assertEquals(0, CredentialsCache.size());
+    }
+
+    @Test
+    void concurrentBindings() throws Exception {
+        int concurrency = SecretBuildWrapper.CONCURRENCY;
+        SecretBuildWrapper.CONCURRENCY = 4;
+        try {
+            List<MultiBinding<?>> bindings = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                        new FileCredentialsImpl(CredentialsScope.GLOBAL, "file" + i, "sample", "secret" + i + ".txt", SecretBytes.fromBytes(("s3cr3t" + i).getBytes(StandardCharsets.UTF_8))));
+                bindings.add(new FileBinding("FILE" + i, "file" + i));
+            }
+            FreeStyleProject f = r.createFreeStyleProject();
+            f.getBuildWrappersList().add(new SecretBuildWrapper(bindings));
+            f.getBuildersList().add(Functions.isWindows() ? new BatchFile("type %FILE7%") : new Shell("cat \"$FILE7\""));
+            FreeStyleBuild b = r.buildAndAssertSuccess(f);
+            r.assertLogContains("s3cr3t7", b);
+            for (int i = 0; i < 8; i++) {
+                r.assertLogContains("Bound Secret file (file" + i + ") in ", b);
+                r.assertLogContains("Unbound Secret file (file" + i + ") in ", b);
+            }
+            assertEquals(Collections.emptyList(), WorkspaceList.tempDir(b.getWorkspace()).child("secretFiles").list());
+        } finally {
+            SecretBuildWrapper.CONCURRENCY = concurrency;
+        }
+    }
+
+    @Test
+    void largeSecretFile() throws Exception {
+        assumeFalse(Functions.isWindows());
+        byte[] content = new byte[2 * 1024 * 1024];
+        Arrays.fill(content, (byte) 'x');
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(),
+                new FileCredentialsImpl(CredentialsScope.GLOBAL, "file", "sample", "secret.bin", SecretBytes.fromBytes(content)));
+        FreeStyleProject f = r.createFreeStyleProject();
+        f.getBuildWrappersList().add(new SecretBuildWrapper(Collections.singletonList(new FileBinding("FILE", "file"))));
+        // Streamed to the agent rather than sent in one call.
+        f.getBuildersList().add(new Shell("test $(wc -c < \"$FILE\") -eq " + content.length + " && echo streamed"));
+        r.assertLogContains("streamed", r.buildAndAssertSuccess(f));
+    }
+
+    @Test
+    void maskingWhenStreaming() throws Exception {
+        boolean streaming = SecretPatterns.STREAMING;
+        SecretPatterns.STREAMING = true;
+        try {
+            String password = "p4$$w0rd";
+            CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "creds", "sample", Secret.fromString(password)));
+            FreeStyleProject f = r.createFreeStyleProject();
+            f.getBuildWrappersList().add(new SecretBuildWrapper(Collections.singletonList(new StringBinding("PASS", "creds"))));
+            f.getBuildersList().add(Functions.isWindows() ? new BatchFile("echo %PASS%") : new Shell("echo \"$PASS\""));
+            f.getPublishersList().add(new PasswordPublisher(password));
+            FreeStyleBuild b = r.buildAndAssertSuccess(f);
+            // The log was written to ("Started by…") before setUp made the secrets known.
+            r.assertLogContains("Started by", b);
+            r.assertLogNotContains(password, b);
+            r.assertLogContains("Sneak it in during the postbuild: **** :done.", b);
+        } finally {
+            SecretPatterns.STREAMING = streaming;
+        }
+    }
+
+    @Test
+    void shellQuotingOnWindowsLauncher() throws Exception {
+        // As with sh through Cygwin, Git Bash or MSYS on a Windows agent.
+        assumeTrue(Executables.isExecutable("bash"));
+        r.jenkins.getDescriptorByType(Shell.DescriptorImpl.class).setShell(Executables.getPathToExecutable("bash"));
+        String password = "a'b c";
+        CredentialsProvider.lookupStores(r.jenkins).iterator().next().addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "creds", "sample", Secret.fromString(password)));
+        FreeStyleProject f = r.createFreeStyleProject();
+        f.getBuildWrappersList().add(new WindowsLauncherWrapper());
+        f.getBuildWrappersList().add(new SecretBuildWrapper(Collections.singletonList(new StringBinding("PASS", "creds"))));
+        f.getBuildersList().add(new Shell("set -x; : \"$PASS\""));
+        FreeStyleBuild b = r.buildAndAssertSuccess(f);
+        r.assertLogContains("Unix: false", b);
+        r.assertLogContains("+ : ****", b);
+        r.assertLogNotContains(password, b);
+        r.assertLogNotContains("'\\''", b);
+    }
+
+    public static class WindowsLauncherWrapper extends BuildWrapper {
+
+        @Override
+        public Launcher decorateLauncher(AbstractBuild build, Launcher launcher, BuildListener listener) {
+            return new Launcher.DecoratedLauncher(launcher) {
+                @Override
+                public boolean isUnix() {
+                    return false;
+                }
+            };
+        }
+
+        @Override
+        public Environment setUp(AbstractBuild build, Launcher launcher, BuildListener listener) {
+            listener.getLogger().println("Unix: " + launcher.isUnix());
+            return new Environment() {};
+        }
+
+        @TestExtension("shellQuotingOnWindowsLauncher")
+        public static class DescriptorImpl extends BuildWrapperDescriptor {
+
+            @Override
+            public boolean isApplicable(AbstractProject<?, ?> item) {
+                return true;
+            }
+        }
+    }
+
+    static class PatternPublisher extends Recorder {
+
+        @Override
+        public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+            Pattern pattern = SecretBuildWrapper.getPatternForBuild(build);
+            listener.getLogger().println("same pattern: " + (pattern == SecretBuildWrapper.getPatternForBuild(build)));
+            listener.getLogger().println("matches: " + pattern.matcher("p4$$").matches());
+            return true;
+        }
+
+        public BuildStepMonitor getRequiredMonitorService() {
+            return BuildStepMonitor.NONE;
+        }
+
+    }
+
     static class PasswordPublisher extends Recorder {
 
         private final String password;
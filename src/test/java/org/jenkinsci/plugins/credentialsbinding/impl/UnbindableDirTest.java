@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.credentialsbinding.impl;
+
+import hudson.FilePath;
+import hudson.Functions;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.plugins.credentialsbinding.MultiBinding;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MemoryAssert;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@WithJenkins
+class UnbindableDirTest {
+
+    private JenkinsRule r;
+
+    @BeforeEach
+    void beforeEach(JenkinsRule rule) {
+        r = rule;
+    }
+
+    @Test
+    void createWithFile() throws Exception {
+        FilePath workspace = r.jenkins.getRootPath().child("ws");
+        UnbindableDir dir = UnbindableDir.createWithFile(workspace, "s3cr3t".getBytes(StandardCharsets.UTF_8));
+        FilePath file = dir.getFile();
+        assertEquals(dir.getDirPath(), file.getParent());
+        assertEquals("s3cr3t", file.readToString());
+        if (!Functions.isWindows()) {
+            assertEquals(0700, dir.getDirPath().mode());
+            assertEquals(0400, file.mode());
+        }
+    }
+
+    @Test
+    void sweepsDirectoryWhoseUnbinderNeverRan() throws Exception {
+        FilePath workspace = r.jenkins.getRootPath().child("ws");
+        workspace.mkdirs();
+        UnbindableDir dir = UnbindableDir.create(workspace);
+        FilePath path = dir.getDirPath();
+        path.touch(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2));
+        UnbindableDir.sweepNow(workspace);
+        assertTrue(path.exists(), "the unbinder could still run");
+        // As when a build is killed before unbinding, and its program state discarded.
+        WeakReference<MultiBinding.Unbinder> unbinder = new WeakReference<>(dir.getUnbinder());
+        dir = null;
+        MemoryAssert.assertGC(unbinder, false);
+        UnbindableDir.sweepNow(workspace);
+        assertFalse(path.exists());
+    }
+
+}
@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.credentialsbinding.masking;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Guards against garbage creeping back into the masking hot path, by measuring bytes allocated per line.
+ */
+class MaskingOutputStreamAllocationTest {
+
+    /** Lines without a secret must be passed through without allocating anything. */
+    private static final double UNMASKED_BYTES_PER_LINE = 0.05;
+    /** Lines with a secret may allocate the encoded replacement. */
+    private static final double MASKED_BYTES_PER_LINE = 64;
+
+    private static final int WARMUP = 50_000;
+    private static final int LINES = 100_000;
+
+    private static final SecretMatcher MATCHER = SecretMatcher.literal(List.of("czNjcjN0LXBhc3N3b3Jk", "s3cr3t-password", "t0k3n-value"));
+
+    private com.sun.management.ThreadMXBean threads;
+
+    @BeforeEach
+    void beforeEach() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    void unmaskedLines() throws Exception {
+        for (Charset charset : List.of(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1)) {
+            byte[] line = "[INFO] Compiling 42 source files to /workspace/target/classes with javac [debug release 17]\n".getBytes(charset);
+            assertBudget(new SecretPatterns.MaskingOutputStream(new Sink(), () -> MATCHER, charset), line, UNMASKED_BYTES_PER_LINE, "lines " + charset);
+            assertBudget(new SecretPatterns.StreamingMaskingOutputStream(new Sink(), () -> MATCHER, charset, 8192), line, UNMASKED_BYTES_PER_LINE, "streaming " + charset);
+        }
+    }
+
+    @Test
+    void maskedLines() throws Exception {
+        for (Charset charset : List.of(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1)) {
+            byte[] line = "+ curl -u admin:s3cr3t-password https://example.com/api/json?token=t0k3n-value\n".getBytes(charset);
+            assertBudget(new SecretPatterns.MaskingOutputStream(new Sink(), () -> MATCHER, charset), line, MASKED_BYTES_PER_LINE, "lines " + charset);
+            assertBudget(new SecretPatterns.StreamingMaskingOutputStream(new Sink(), () -> MATCHER, charset, 8192), line, MASKED_BYTES_PER_LINE, "streaming " + charset);
+        }
+    }
+
+    private void assertBudget(OutputStream out, byte[] line, double budget, String what) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            out.write(line);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < LINES; i++) {
+            out.write(line);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        double perLine = (double) allocated / LINES;
+        assertTrue(perLine <= budget, () -> what + " allocated " + perLine + " bytes per line, over the budget of " + budget);
+    }
+
+    /** Discards output without allocating. */
+    private static final class Sink extends OutputStream {
+
+        @Override public void write(int b) {}
+
+        @Override public void write(byte[] b, int off, int len) {}
+
+    }
+
+}
@@ -0,0 +1,154 @@
+package org.jenkinsci.plugins.credentialsbinding.masking;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SecretMatcherCacheTest {
+
+    private int size;
+
+    @BeforeEach
+    void beforeEach() {
+        size = SecretMatcherCache.SIZE;
+        SecretMatcherCache.clear();
+    }
+
+    @AfterEach
+    void afterEach() {
+        SecretMatcherCache.SIZE = size;
+        SecretMatcherCache.clear();
+    }
+
+    @Test
+    void sharedBetweenCallers() {
+        long hits = SecretMatcherCache.getHitCount();
+        long misses = SecretMatcherCache.getMissCount();
+        SecretMatcher first = get(List.of("s3cr3t", "t0k3n"));
+        SecretMatcher second = get(List.of("s3cr3t", "t0k3n"));
+        assertSame(first, second);
+        assertNotSame(first, get(List.of("s3cr3t")));
+        assertEquals(hits + 1, SecretMatcherCache.getHitCount());
+        assertEquals(misses + 2, SecretMatcherCache.getMissCount());
+    }
+
+    @Test
+    void keys() {
+        List<SecretPatternFactory> factories = List.of(new LiteralSecretPatternFactory());
+        assertEquals(SecretMatcherCache.keyForSecrets(List.of("a", "b", "a"), factories), SecretMatcherCache.keyForSecrets(Set.of("b", "a"), factories));
+        assertNotEquals(SecretMatcherCache.keyForSecrets(List.of("ab"), factories), SecretMatcherCache.keyForSecrets(List.of("a", "b"), factories));
+        assertNotEquals(SecretMatcherCache.keyForSecrets(List.of("a"), factories), SecretMatcherCache.keyForSecrets(List.of("a"), List.of()));
+    }
+
+    @Test
+    void eviction() {
+        SecretMatcherCache.SIZE = 2;
+        long evictions = SecretMatcherCache.getEvictionCount();
+        SecretMatcher first = get(List.of("one"));
+        get(List.of("two"));
+        get(List.of("one"));
+        get(List.of("three"));
+        assertEquals(evictions + 1, SecretMatcherCache.getEvictionCount());
+        assertEquals(2, SecretMatcherCache.size());
+        // "two" was least recently used
+        assertSame(first, get(List.of("one")));
+    }
+
+    @Test
+    void concurrentRequestsShareCompilation() throws Exception {
+        long misses = SecretMatcherCache.getMissCount();
+        ByteBuffer key = SecretMatcherCache.keyForForms(List.of("s3cr3t"));
+        AtomicInteger compilations = new AtomicInteger();
+        CountDownLatch compiling = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<SecretMatcher>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> SecretMatcherCache.get(key, () -> {
+                    compilations.incrementAndGet();
+                    compiling.countDown();
+                    try {
+                        finish.await();
+                    } catch (InterruptedException x) {
+                        throw new AssertionError(x);
+                    }
+                    return SecretMatcher.literal(List.of("s3cr3t"));
+                })));
+            }
+            compiling.await();
+            Thread.sleep(100);
+            finish.countDown();
+            SecretMatcher first = results.get(0).get();
+            for (Future<SecretMatcher> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, compilations.get());
+        assertEquals(misses + 1, SecretMatcherCache.getMissCount());
+    }
+
+    @Test
+    void failedCompilationNotCached() {
+        ByteBuffer key = SecretMatcherCache.keyForForms(List.of("s3cr3t"));
+        assertThrows(IllegalStateException.class, () -> SecretMatcherCache.get(key, () -> {
+            throw new IllegalStateException();
+        }));
+        assertNotNull(SecretMatcherCache.get(key, () -> SecretMatcher.literal(List.of("s3cr3t"))));
+    }
+
+    @Test
+    void boundedConcurrency() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(SecretMatcherCache.CONCURRENCY * 4);
+        try {
+            List<Future<SecretMatcher>> results = new ArrayList<>();
+            for (int i = 0; i < SecretMatcherCache.CONCURRENCY * 4; i++) {
+                List<String> forms = List.of("s3cr3t" + i);
+                results.add(executor.submit(() -> SecretMatcherCache.get(SecretMatcherCache.keyForForms(forms), () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException x) {
+                        throw new AssertionError(x);
+                    }
+                    running.decrementAndGet();
+                    return SecretMatcher.literal(forms);
+                })));
+            }
+            for (Future<SecretMatcher> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(maxRunning.get() <= SecretMatcherCache.CONCURRENCY, () -> maxRunning.get() + " compilations at once");
+    }
+
+    private static SecretMatcher get(List<String> forms) {
+        ByteBuffer key = SecretMatcherCache.keyForForms(forms);
+        return SecretMatcherCache.get(key, () -> SecretMatcher.literal(forms));
+    }
+
+}
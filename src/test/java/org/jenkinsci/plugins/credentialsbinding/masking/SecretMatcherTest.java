@@ -0,0 +1,192 @@
+package org.jenkinsci.plugins.credentialsbinding.masking;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SecretMatcherTest {
+
+    @Test
+    void longestFormWins() {
+        SecretMatcher m = literal("abc", "abcdef", "cde");
+        assertEquals("x****y", m.replaceAll("xabcdefy", "****"));
+        assertEquals("x****dy", m.replaceAll("xabcdy", "****"));
+        assertEquals("x****dey", m.replaceAll("xabcdey", "****"));
+        assertEquals("xabx****y", m.replaceAll("xabxcdey", "****"));
+    }
+
+    @Test
+    void leftmostMatchWins() {
+        SecretMatcher m = literal("bcd", "abcd", "cdefgh");
+        assertEquals("****efg", m.replaceAll("abcdefg", "****"));
+        assertEquals("****efgh", m.replaceAll("abcdefgh", "****"));
+        assertEquals("****efgh", m.replaceAll("bcdefgh", "****"));
+        assertEquals("x****", m.replaceAll("xcdefgh", "****"));
+    }
+
+    @Test
+    void empty() {
+        SecretMatcher m = literal();
+        assertTrue(m.isEmpty());
+        assertFalse(m.find("anything"));
+        assertEquals("anything", m.replaceAll("anything", "****"));
+    }
+
+    @Test
+    void sameResultsAsRegex() throws Exception {
+        sameResultsAsRegex(new Random(42));
+    }
+
+    @Test
+    void deterministic() throws Exception {
+        int threshold = SecretPatterns.DFA_THRESHOLD;
+        SecretPatterns.DFA_THRESHOLD = 1;
+        try {
+            assertTrue(new LiteralAutomaton(List.of(new int[] {'a'})).footprint() < LiteralAutomaton.compile(List.of(new int[] {'a'}), true, "test").footprint());
+            assertTrue(LiteralAutomaton.compile(List.of(new int[] {'a', 'b'}, new int[] {0x20ac}), true, "test").isDeterministic());
+            // Only the automata over bytes, which mask console logs, get a transition table.
+            assertFalse(LiteralAutomaton.compile(List.of(new int[] {'a', 'b'}), false, "test").isDeterministic());
+            SecretMatcher m = SecretMatcher.literal(List.of("s3cr3t"));
+            assertTrue(m.encoded(StandardCharsets.UTF_8).isDeterministic());
+            sameResultsAsRegex(new Random(43));
+        } finally {
+            SecretPatterns.DFA_THRESHOLD = threshold;
+        }
+    }
+
+    private static void sameResultsAsRegex(Random random) throws Exception {
+        for (int i = 0; i < 10_000; i++) {
+            TreeSet<String> set = new TreeSet<>();
+            int count = 1 + random.nextInt(6);
+            for (int j = 0; j < count; j++) {
+                set.add(randomString(random, 1 + random.nextInt(5), 3).replace('c', '\u00e9'));
+            }
+            List<String> forms = sorted(set);
+            String text = randomString(random, random.nextInt(30), 4).replace('c', '\u00e9');
+            String expected = SecretPatterns.toPattern(forms).matcher(text).replaceAll("****");
+            SecretMatcher m = SecretMatcher.literal(forms);
+            assertEquals(expected, m.replaceAll(text, "****"), () -> forms + " in " + text);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            m.mask(bytes, 0, bytes.length, StandardCharsets.UTF_8, "****", out);
+            assertEquals(expected, out.toString(StandardCharsets.UTF_8), () -> forms + " in " + text);
+        }
+    }
+
+    @Test
+    void maskBytes() throws Exception {
+        SecretMatcher m = literal("s3cr3t", "p\u00e4ss");
+        for (Charset charset : List.of(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16BE)) {
+            byte[] line = "> s3cr3t p\u00e4ss s3cr3 p\u00e4s\n".getBytes(charset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            m.mask(line, 0, line.length, charset, "****", out);
+            assertEquals("> **** **** s3cr3 p\u00e4s\n", out.toString(charset), charset::name);
+        }
+    }
+
+    @Test
+    void prefilter() {
+        LiteralAutomaton automaton = new LiteralAutomaton(List.of("s3cr3t".chars().toArray(), "t0k3n".chars().toArray()));
+        assertEquals(-1, automaton.skip("no secrets on this line\n", 0, 24));
+        assertEquals(-1, automaton.skip("xs3c", 0, 4), "too short to hold any secret");
+        assertEquals(3, automaton.skip("is s3cr3t", 0, 9));
+        assertEquals(3, automaton.skip("is t0k3", 0, 7), "a possible prefix is enough");
+        assertEquals(-1, automaton.skip("is t0k", 0, 6), "too short to hold the rest of the secret");
+        byte[] bytes = "\u00e9t\u00e9 t0k3n".getBytes(StandardCharsets.UTF_8);
+        assertEquals(6, new LiteralAutomaton(List.of(new int[] {'t', '0', 'k', '3', 'n'})).skip(bytes, 0, bytes.length));
+    }
+
+    @Test
+    void prefilterWords() {
+        // Few distinct first bytes, so that the prefilter compares words rather than single bytes.
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 1_000; iteration++) {
+            List<int[]> literals = new ArrayList<>();
+            int prefixLength = 4;
+            for (int i = 1 + random.nextInt(6); i > 0; i--) {
+                int[] literal = random.ints(1 + random.nextInt(5), 0, 3).map("ab\u00ff"::charAt).toArray();
+                literals.add(literal);
+                prefixLength = Math.min(prefixLength, literal.length);
+            }
+            LiteralAutomaton automaton = new LiteralAutomaton(literals);
+            byte[] text = new byte[random.nextInt(40)];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = (byte) "ab\u00ffc\n".charAt(random.nextInt(5));
+            }
+            for (int from = 0; from <= text.length; from++) {
+                int candidate = -1;
+                for (int i = from; i + prefixLength <= text.length && candidate < 0; i++) {
+                    for (int[] literal : literals) {
+                        if (literal[0] == (text[i] & 0xFF)) {
+                            candidate = i;
+                        }
+                    }
+                }
+                int skipped = automaton.skip(text, from, text.length);
+                // The Bloom filter may reject a candidate, but must never skip over an actual match.
+                assertTrue(candidate < 0 ? skipped == -1 : skipped == -1 || skipped >= candidate);
+                assertEquals(leftmostLongest(literals, text, from), automaton.find(text, from, text.length));
+            }
+        }
+    }
+
+    private static long leftmostLongest(List<int[]> literals, byte[] text, int from) {
+        for (int i = from; i < text.length; i++) {
+            int longest = 0;
+            for (int[] literal : literals) {
+                int j = 0;
+                while (j < literal.length && i + j < text.length && literal[j] == (text[i + j] & 0xFF)) {
+                    j++;
+                }
+                if (j == literal.length) {
+                    longest = Math.max(longest, j);
+                }
+            }
+            if (longest > 0) {
+                return ((long) i << 32) | (i + longest);
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    void parseAggregateSecretPattern() {
+        List<String> forms = sorted(List.of("s3cr3t", "with\\Equote", "a|b", "\\Q\\E"));
+        SecretMatcher m = SecretPatterns.parseAggregateSecretPattern(SecretPatterns.toPattern(forms).pattern());
+        assertEquals("1 **** 2 **** 3 **** 4 ****", m.replaceAll("1 s3cr3t 2 with\\Equote 3 a|b 4 \\Q\\E", "****"));
+        assertTrue(SecretPatterns.parseAggregateSecretPattern("").isEmpty());
+        // not something we generated, but still honored
+        assertEquals("****", SecretPatterns.parseAggregateSecretPattern("[a-z]+").replaceAll("abc", "****"));
+    }
+
+    private static SecretMatcher literal(String... forms) {
+        return SecretMatcher.literal(sorted(List.of(forms)));
+    }
+
+    private static List<String> sorted(Iterable<String> forms) {
+        List<String> list = new ArrayList<>();
+        forms.forEach(list::add);
+        list.sort(Comparator.comparingInt(String::length).reversed().thenComparing(String::compareTo));
+        return list;
+    }
+
+    private static String randomString(Random random, int length, int alphabet) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(alphabet)));
+        }
+        return sb.toString();
+    }
+
+}
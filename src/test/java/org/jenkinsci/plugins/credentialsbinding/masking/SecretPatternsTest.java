@@ -46,6 +46,10 @@ import org.jvnet.hudson.test.junit.jupiter.BuildWatcherExtension;
 import org.jvnet.hudson.test.junit.jupiter.InboundAgentExtension;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 @WithJenkins
 class SecretPatternsTest {
 
@@ -68,6 +72,24 @@ class SecretPatternsTest {
         DurableTaskStep.USE_WATCHING = useWatching;
     }
 
+    @Test
+    void formsForPlatform() {
+        Set<String> secrets = Set.of("s3^cr'3t");
+        String batch = "echo s3cr'3t";
+        String bash = "echo 's3^cr'\\''3t'";
+        SecretMatcher unix = SecretPatterns.getAggregateSecretMatcher(secrets, true);
+        SecretMatcher windows = SecretPatterns.getAggregateSecretMatcher(secrets, false);
+        SecretMatcher unknown = SecretPatterns.getAggregateSecretMatcher(secrets, null);
+        assertFalse(unix.find(batch));
+        assertTrue(unix.find(bash));
+        assertTrue(windows.find(batch));
+        // Shells also run on Windows, as with Cygwin.
+        assertTrue(windows.find(bash));
+        assertTrue(unknown.find(batch));
+        assertTrue(unknown.find(bash));
+        assertNotSame(unix, unknown);
+    }
+
     @Issue("SECURITY-3075")
     @Test
     void secretPatternFactoriesRetrievedFromAgent() throws Exception {
@@ -0,0 +1,80 @@
+package org.jenkinsci.plugins.credentialsbinding.masking;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingMaskingOutputStreamTest {
+
+    private static final SecretMatcher MATCHER = SecretMatcher.literal(List.of("s3cr3t-s3cr3t", "s3cr3t", "t0k3n"));
+
+    @Test
+    void secretsAcrossChunkBoundaries() throws Exception {
+        Random random = new Random(42);
+        String[] pieces = {"s3cr3t", "s3cr3t-s3cr3t", "t0k3n", "s3cr", "3t", "-", "x", "\r", "\n", "t0k"};
+        for (int i = 0; i < 2_000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int count = random.nextInt(40);
+            for (int j = 0; j < count; j++) {
+                sb.append(pieces[random.nextInt(pieces.length)]);
+            }
+            String text = sb.toString();
+            int chunkSize = 1 + random.nextInt(20);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            write(text, new SecretPatterns.MaskingOutputStream(expected, () -> MATCHER, StandardCharsets.UTF_8), random);
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            write(text, new SecretPatterns.StreamingMaskingOutputStream(actual, () -> MATCHER, StandardCharsets.UTF_8, chunkSize), random);
+            assertEquals(expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8), () -> text + " with chunks of " + chunkSize);
+        }
+    }
+
+    @Test
+    void boundedBuffer() throws Exception {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        OutputStream out = new SecretPatterns.StreamingMaskingOutputStream(sink, () -> MATCHER, StandardCharsets.UTF_8, 1024);
+        byte[] progress = "\r[=====     ] s3cr3t ".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 10_000; i++) {
+            out.write(progress);
+        }
+        // Everything except the overlap window has been written out without waiting for a newline.
+        assertTrue(sink.size() > 10_000 * (progress.length - 2) - 1024, () -> "wrote " + sink.size());
+        out.close();
+        String result = sink.toString(StandardCharsets.UTF_8);
+        assertEquals(-1, result.indexOf("s3cr3t"));
+        assertEquals(10_000, result.split("\\*\\*\\*\\*", -1).length - 1);
+    }
+
+    @Test
+    void fallsBackToLinesForOtherCharsets() throws Exception {
+        Charset charset = StandardCharsets.UTF_16BE;
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        OutputStream out = new SecretPatterns.StreamingMaskingOutputStream(sink, () -> MATCHER, charset, 4);
+        out.write("a s3cr3t\nand t0k3n".getBytes(charset));
+        out.close();
+        assertEquals("a ****\nand ****", sink.toString(charset));
+    }
+
+    private static void write(String text, OutputStream out, Random random) throws Exception {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int pos = 0;
+        while (pos < bytes.length) {
+            int n = Math.min(bytes.length - pos, 1 + random.nextInt(8));
+            if (n == 1) {
+                out.write(bytes[pos]);
+            } else {
+                out.write(bytes, pos, n);
+            }
+            pos += n;
+        }
+        out.close();
+    }
+
+}